@@ -0,0 +1,65 @@
+import java.util.concurrent.atomic.*;
+
+/**
+ * BloomFilter - A filter in front of a set of longs, telling most of the keys not in the set without
+ * looking in the set.
+ * <p>
+ * A key sets HASH_NUMBER bits of a bit array, picked by two hashes of the key (double hashing).  A
+ * key with one of its bits clear was never added, so the lookup stops there; a key with all its bits
+ * set may have been added, and the set is looked in.  With 10 bits for each key expected, about 1%
+ * of the keys not added pass.  The bit array is small next to the set, so the filter mostly stays in
+ * the cache while the set does not.
+ * <p>
+ * Bits are only set, with a compare-and-set on their word, so the filter can be shared by games
+ * played at the same time without any lock.  A key must be added to the filter before the set, so a
+ * key found in the set always passes the filter.
+ */
+public class BloomFilter {
+  public static final int BITS_PER_KEY = 10;
+  private static final int HASH_NUMBER = 4;
+
+  private final AtomicLongArray bits;
+  private final long mask;
+
+  /**
+   * @param expectedKeys the number of keys expected, the filter passes more keys not added beyond it.
+   */
+  public BloomFilter(long expectedKeys) {
+    long bitNumber = Long.highestOneBit(Math.max(64, expectedKeys * BITS_PER_KEY - 1)) << 1;
+    bits = new AtomicLongArray((int) Math.min(bitNumber / 64, 1 << 30));
+    mask = bits.length() * 64L - 1;
+  }
+
+  public void add(long key) {
+    long hash1 = LongHashSet.mix(key);
+    long hash2 = (hash1 >>> 32) | 1;
+    for (int ii = 0; ii < HASH_NUMBER; ii++) {
+      long bit = (hash1 + ii * hash2) & mask;
+      int index = (int) (bit >>> 6);
+      long bitMask = 1L << bit;
+      long word = bits.get(index);
+      while ( ((word & bitMask) == 0) && !bits.compareAndSet(index, word, word | bitMask) ) {
+        word = bits.get(index);
+      }
+    }
+  }
+
+  /**
+   * @return false if the key was never added, true if it may have been.
+   */
+  public boolean mightContain(long key) {
+    long hash1 = LongHashSet.mix(key);
+    long hash2 = (hash1 >>> 32) | 1;
+    for (int ii = 0; ii < HASH_NUMBER; ii++) {
+      long bit = (hash1 + ii * hash2) & mask;
+      if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public long getMemoryBytes() {
+    return 8L * bits.length();
+  }
+}
@@ -0,0 +1,414 @@
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.SplittableRandom;
+
+/**
+ * Board - A square board of any size, won by k stones in a row: 3x3 Tic Tac Toe, 4x4, 5x5, or 15x15
+ * with 5 in a row (gomoku).
+ * <p>
+ * A move is the cell index + 1, the cells numbered row by row from 0, so on the 3x3 board it is the
+ * one digit encoding of TicTacToe, (row#-1)*size+col#.  The computer moves first, as on the 3x3 board.
+ * <p>
+ * The winner is found incrementally: a move can only win with a line through its own cell, so only
+ * the 4 directions through the last move are counted, at most 2*(k-1) cells each, whatever the size.
+ * <p>
+ * The free cells are kept in an array with the index of each cell in it, so a move takes a free cell
+ * out and an undo puts it back in constant time, and a random free move is one array read.  Playing,
+ * undoing and copying a board into another one of the same size allocate nothing, for the rollouts
+ * of MonteCarloStrategy.
+ * <p>
+ * The position is hashed by Zobrist hashing: a random 64 bit key for each side and cell, the hash is
+ * the XOR of the keys of the stones, updated with one XOR per move.  The hash is also kept under the
+ * 8 symmetries of the square board, the same transforms as BoardSymmetry, so the canonical hash (the
+ * smallest of the 8) is the same for all the rotations and reflections of a position and for all the
+ * move orders reaching it.  The keys of a size are made once from a fixed seed and shared.
+ */
+public class Board {
+  public static final int NONE = 0;
+  public static final int COMPUTER = 1;
+  public static final int PERSON = 2;
+
+  private static final int TRANSFORM_NUMBER = 8;
+  private static final int[][] DIRECTIONS = {{0, 1}, {1, 0}, {1, 1}, {1, -1}};  //row, column steps
+  private static final ConcurrentHashMap<Integer, long[][]> KEYS = new ConcurrentHashMap<Integer, long[][]>();
+
+  private final int size;
+  private final int winLength;
+  private final int cellCount;
+  private final long[][] keys;   //keys[t][(side-1)*cellCount + cell], the key of the cell after transform t
+
+  private final byte[] cells;    //NONE, COMPUTER or PERSON for each cell
+  private final int[] moves;     //the moves played, in order
+  private int moveCount;
+  private final int[] freeCells;
+  private final int[] freeIndex; //index of each free cell in freeCells
+  private int freeCount;
+  private final long[] hashes;   //the hash under each transform
+  private int winner;
+
+  public Board(int size, int winLength) {
+    if ( (size < 1) || (winLength < 1) || (winLength > size) ) {
+      throw new IllegalArgumentException("Bad board " + size + "x" + size + " with " + winLength + " in a row");
+    }
+    this.size = size;
+    this.winLength = winLength;
+    cellCount = size * size;
+    keys = getKeys(size);
+    cells = new byte[cellCount];
+    moves = new int[cellCount];
+    freeCells = new int[cellCount];
+    freeIndex = new int[cellCount];
+    hashes = new long[TRANSFORM_NUMBER];
+    reset();
+  }
+
+  public Board(Board other) {
+    this(other.size, other.winLength);
+    copyFrom(other);
+  }
+
+  /**
+   * The 3x3 board of a game of TicTacToe.
+   */
+  public static Board fromGameState(GameState state) {
+    Board board = new Board(3, 3);
+    for (int ii = 0; ii < state.getMoveCount(); ii++) {
+      board.play(state.getMove(ii));
+    }
+    return board;
+  }
+
+  private static long[][] getKeys(final int size) {
+    return KEYS.computeIfAbsent(size, key -> {
+      int cellCount = size * size;
+      SplittableRandom random = new SplittableRandom(0x5454544BL + size);
+      long[] baseKeys = new long[2 * cellCount];
+      for (int ii = 0; ii < baseKeys.length; ii++) {
+        baseKeys[ii] = random.nextLong();
+      }
+
+      long[][] keys = new long[TRANSFORM_NUMBER][2 * cellCount];
+      for (int t = 0; t < TRANSFORM_NUMBER; t++) {
+        for (int cell = 0; cell < cellCount; cell++) {
+          int transformed = transformCell(cell, size, t);
+          keys[t][cell] = baseKeys[transformed];
+          keys[t][cellCount + cell] = baseKeys[cellCount + transformed];
+        }
+      }
+      return keys;
+    });
+  }
+
+  /**
+   * Apply transform t to a cell, with the transforms of BoardSymmetry.
+   */
+  public static int transformCell(int cell, int size, int t) {
+    int x = cell / size;
+    int y = cell % size;
+    int last = size - 1;
+    switch (t) {
+      case 0: return x*size + y;                  //identity
+      case 1: return y*size + (last-x);           //rotate 90 degree
+      case 2: return (last-x)*size + (last-y);    //rotate 180 degree
+      case 3: return (last-y)*size + x;           //rotate 270 degree
+      case 4: return x*size + (last-y);           //reflect left-right
+      case 5: return (last-x)*size + y;           //reflect top-bottom
+      case 6: return y*size + x;                  //reflect on the main diagonal
+      default: return (last-y)*size + (last-x);   //reflect on the other diagonal
+    }
+  }
+
+  public void reset() {
+    java.util.Arrays.fill(cells, (byte) NONE);
+    moveCount = 0;
+    for (int cell = 0; cell < cellCount; cell++) {
+      freeCells[cell] = cell;
+      freeIndex[cell] = cell;
+    }
+    freeCount = cellCount;
+    java.util.Arrays.fill(hashes, 0L);
+    winner = NONE;
+  }
+
+  /**
+   * Copy another board of the same size into this one, without allocating.
+   */
+  public void copyFrom(Board other) {
+    if ( (other.size != size) || (other.winLength != winLength) ) {
+      throw new IllegalArgumentException("Boards of different sizes");
+    }
+    System.arraycopy(other.cells, 0, cells, 0, cellCount);
+    System.arraycopy(other.moves, 0, moves, 0, other.moveCount);
+    moveCount = other.moveCount;
+    System.arraycopy(other.freeCells, 0, freeCells, 0, cellCount);
+    System.arraycopy(other.freeIndex, 0, freeIndex, 0, cellCount);
+    freeCount = other.freeCount;
+    System.arraycopy(other.hashes, 0, hashes, 0, TRANSFORM_NUMBER);
+    winner = other.winner;
+  }
+
+  public int getSize() {
+    return size;
+  }
+
+  public int getWinLength() {
+    return winLength;
+  }
+
+  public int getCellCount() {
+    return cellCount;
+  }
+
+  public int getMoveCount() {
+    return moveCount;
+  }
+
+  /**
+   * The ii-th move played, from 0.
+   */
+  public int getMove(int ii) {
+    return moves[ii];
+  }
+
+  /**
+   * The side to move: COMPUTER when both sides have the same number of stones.
+   */
+  public int getSideToMove() {
+    return (moveCount % 2 == 0) ? COMPUTER : PERSON;
+  }
+
+  /**
+   * The side on the cell of a move: NONE, COMPUTER or PERSON.
+   */
+  public int getSide(int move) {
+    return cells[move-1];
+  }
+
+  public boolean isOccupied(int move) {
+    return cells[move-1] != NONE;
+  }
+
+  public int getFreeCount() {
+    return freeCount;
+  }
+
+  /**
+   * The ii-th free move, from 0, in no particular order.
+   */
+  public int getFreeMove(int ii) {
+    return freeCells[ii] + 1;
+  }
+
+  /**
+   * The side who has k in a row, or NONE.  It is only checked through the moves played, so a
+   * board has at most one winner.
+   */
+  public int getWinner() {
+    return winner;
+  }
+
+  public boolean hasWinner() {
+    return winner != NONE;
+  }
+
+  public boolean isOver() {
+    return (winner != NONE) || (freeCount == 0);
+  }
+
+  public long getHash() {
+    return hashes[0];
+  }
+
+  /**
+   * The smallest hash of the position under the 8 symmetries, the same for all the symmetric
+   * positions and all the move orders reaching them.
+   */
+  public long getCanonicalHash() {
+    long hash = hashes[0];
+    for (int t = 1; t < TRANSFORM_NUMBER; t++) {
+      hash = Math.min(hash, hashes[t]);
+    }
+    return hash;
+  }
+
+  /**
+   * The canonical hash of the position with one more stone of a side, without changing the board.
+   */
+  public long getCanonicalHashWith(int move, int side) {
+    int keyIndex = (side - 1) * cellCount + move - 1;
+    long hash = hashes[0] ^ keys[0][keyIndex];
+    for (int t = 1; t < TRANSFORM_NUMBER; t++) {
+      hash = Math.min(hash, hashes[t] ^ keys[t][keyIndex]);
+    }
+    return hash;
+  }
+
+  /**
+   * Play a move for the side to move, and check if it wins.
+   */
+  public void play(int move) {
+    int side = getSideToMove();
+    putStone(move, side);
+    moves[moveCount] = move;
+    moveCount++;
+    if (isWinningMove(move, side)) {
+      winner = side;
+    }
+  }
+
+  /**
+   * Take back the last move.
+   */
+  public void undo() {
+    moveCount--;
+    takeStone(moves[moveCount]);
+    winner = NONE;  //no move is played after a win
+  }
+
+  /**
+   * Put a stone without playing a move, for the analysis of positions such as LosePositionStore does.
+   * The moves played are not changed, and the winner is not checked.
+   */
+  public void putStone(int move, int side) {
+    int cell = move - 1;
+    cells[cell] = (byte) side;
+
+    //move the last free cell into the place of this one
+    int index = freeIndex[cell];
+    freeCount--;
+    int lastCell = freeCells[freeCount];
+    freeCells[index] = lastCell;
+    freeIndex[lastCell] = index;
+    freeCells[freeCount] = cell;
+    freeIndex[cell] = freeCount;
+
+    int keyIndex = (side - 1) * cellCount + cell;
+    for (int t = 0; t < TRANSFORM_NUMBER; t++) {
+      hashes[t] ^= keys[t][keyIndex];
+    }
+  }
+
+  /**
+   * Take a stone away, the reverse of putStone().
+   */
+  public void takeStone(int move) {
+    int cell = move - 1;
+    int keyIndex = (cells[cell] - 1) * cellCount + cell;
+    cells[cell] = (byte) NONE;
+
+    //the cell is at freeCells[freeCount] or after it, swap it to there
+    int index = freeIndex[cell];
+    int otherCell = freeCells[freeCount];
+    freeCells[index] = otherCell;
+    freeIndex[otherCell] = index;
+    freeCells[freeCount] = cell;
+    freeIndex[cell] = freeCount;
+    freeCount++;
+
+    for (int t = 0; t < TRANSFORM_NUMBER; t++) {
+      hashes[t] ^= keys[t][keyIndex];
+    }
+  }
+
+  /**
+   * Count the stones of a side on the board.
+   */
+  public int countStones(int side) {
+    int count = 0;
+    for (int cell = 0; cell < cellCount; cell++) {
+      if (cells[cell] == side) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Check if a stone of a side makes k in a row, counting only the lines through its cell.
+   */
+  public boolean isWinningMove(int move, int side) {
+    int x = (move - 1) / size;
+    int y = (move - 1) % size;
+    for (int dd = 0; dd < DIRECTIONS.length; dd++) {
+      int count = 1
+          + countInRow(x, y, DIRECTIONS[dd][0], DIRECTIONS[dd][1], side)
+          + countInRow(x, y, -DIRECTIONS[dd][0], -DIRECTIONS[dd][1], side);
+      if (count >= winLength) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private int countInRow(int x, int y, int dx, int dy, int side) {
+    int count = 0;
+    x += dx;
+    y += dy;
+    while ( (count < winLength - 1) && (x >= 0) && (x < size) && (y >= 0) && (y < size) &&
+            (cells[x*size + y] == side) ) {
+      count++;
+      x += dx;
+      y += dy;
+    }
+    return count;
+  }
+
+  /**
+   * Check the whole board for k in a row of either side, for positions not reached by play().
+   */
+  public boolean hasAnyLine() {
+    for (int cell = 0; cell < cellCount; cell++) {
+      if ( (cells[cell] != NONE) && isWinningMove(cell + 1, cells[cell]) ) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Format a move as "row#,col#".
+   */
+  public String formatMove(int move) {
+    return ((move - 1) / size + 1) + "," + ((move - 1) % size + 1);
+  }
+
+  /**
+   * Parse a move entered as "row#,col#".
+   *
+   * @return the move, or 0 if it is not a free cell of the board.
+   */
+  public int parseMove(String inputLine) {
+    String[] parts = inputLine.trim().split("\\s*,\\s*");
+    //9 digits at most always fit an int, a longer number is off the board anyway
+    if ( (parts.length != 2) || !parts[0].matches("\\d{1,9}") || !parts[1].matches("\\d{1,9}") ) {
+      return 0;
+    }
+    int x = Integer.parseInt(parts[0]);
+    int y = Integer.parseInt(parts[1]);
+    if ( (x < 1) || (x > size) || (y < 1) || (y > size) ) {
+      return 0;
+    }
+    int move = (x - 1) * size + y;
+    return isOccupied(move) ? 0 : move;
+  }
+
+  /**
+   * Draw the board the same way as the 3x3 game, " X | O |   " for a row.
+   */
+  public String toString() {
+    StringBuilder sb = new StringBuilder(cellCount * 8);
+    for (int x = 0; x < size; x++) {
+      if (x > 0) {
+        for (int y = 0; y < size; y++) {
+          sb.append(y > 0 ? "|---" : "---");
+        }
+        sb.append('\n');
+      }
+      for (int y = 0; y < size; y++) {
+        int side = cells[x*size + y];
+        sb.append(y > 0 ? "| " : " ").append(side == COMPUTER ? 'X' : (side == PERSON ? 'O' : ' ')).append(' ');
+      }
+      sb.append('\n');
+    }
+    return sb.toString();
+  }
+}
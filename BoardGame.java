@@ -0,0 +1,195 @@
+import java.util.SplittableRandom;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.io.*;
+
+/**
+ * BoardGame - Play the game on a board of any size, k in a row to win, see Board.
+ * <p>
+ * It is TicTacToe for the larger boards, such as 4x4 with 3 in a row or 15x15 with 5 in a row:<br>
+ * java TicTacToe --board 4 --k 3 [--strategy s] [--person s] [--simulate N --threads T] [--bloom N]<br>
+ * The strategies are "learning" (the computer by default), "random", "mcts[:options]" (see
+ * MonteCarloStrategy) and "human" (the person by default), each a BoardStrategy.
+ * <p>
+ * The lose positions learned are kept in a BoardLoseStore shared by all the games, in memory only:
+ * a lose record packs a move in 4 bits, which holds the 9 cells of the 3x3 board but not the cells of
+ * the larger boards, so they are not saved to the lose records file.  "--bloom N" puts a
+ * BloomFilter sized for N lose positions in front of the store.
+ */
+public class BoardGame {
+  private Board board;
+  private BoardLoseStore loseStore;
+  private SplittableRandom random;
+  private String computerStrategyName;
+  private String personStrategyName;
+  private BoardStrategy computerStrategy;
+  private BoardStrategy personStrategy;
+
+  public BoardGame(int size, int winLength) {
+    this(size, winLength, 0);
+  }
+
+  /**
+   * @param expectedPositions the lose positions expected, to size a BloomFilter in front of the lose
+   *                          store, or 0 for no filter.
+   */
+  public BoardGame(int size, int winLength, long expectedPositions) {
+    board = new Board(size, winLength);
+    loseStore = (expectedPositions > 0) ? new BoardLoseStore(expectedPositions) : new BoardLoseStore();
+    random = new SplittableRandom();
+    setComputerStrategy("learning");
+    setPersonStrategy("human");
+  }
+
+  /**
+   * A game played on another thread, sharing the lose store of a game, with its own board,
+   * strategies and random# generator.
+   */
+  BoardGame(BoardGame shared, SplittableRandom random) {
+    board = new Board(shared.board.getSize(), shared.board.getWinLength());
+    loseStore = shared.loseStore;
+    this.random = random;
+    setComputerStrategy(shared.computerStrategyName);
+    setPersonStrategy(shared.personStrategyName);
+  }
+
+  public void setComputerStrategy(String strategyName) {
+    computerStrategyName = strategyName;
+    computerStrategy = createStrategy(strategyName);
+  }
+
+  public void setPersonStrategy(String strategyName) {
+    personStrategyName = strategyName;
+    personStrategy = createStrategy(strategyName);
+  }
+
+  /**
+   * Create a strategy by its name: "learning", "random", "mcts[:options]" or "human".
+   */
+  private BoardStrategy createStrategy(String strategyName) {
+    if (strategyName.equals("learning")) {
+      return new BoardLearningStrategy(loseStore, random);
+    }
+    else if (strategyName.equals("random")) {
+      return new BoardRandomStrategy(random);
+    }
+    else if (strategyName.equals("mcts") || strategyName.startsWith("mcts:")) {
+      return MonteCarloStrategy.parse(strategyName.substring(Math.min(strategyName.length(), 5)), random);
+    }
+    else if (strategyName.equals("human")) {
+      return new HumanStrategy(new BufferedReader(new InputStreamReader(System.in)), System.out);
+    }
+    throw new IllegalArgumentException("Unknown board strategy: " + strategyName);
+  }
+
+  /**
+   * Play one game with the computer, drawing the board after each move.
+   */
+  public void play() {
+    System.out.println("****************************************************************");
+    System.out.println("Play game: a move is expressed as \"row#,col#\", such as \"1,2\"");
+    System.out.println("Board: " + board.getSize() + "x" + board.getSize() + ", " +
+                       board.getWinLength() + " in a row wins");
+    System.out.println("Computer: X   Person: O");
+    System.out.println("****************************************************************");
+    board.reset();
+    while (!board.isOver()) {
+      boolean computerToMove = (board.getSideToMove() == Board.COMPUTER);
+      int move = computerToMove ? computerStrategy.nextMove(board) : personStrategy.nextMove(board);
+      board.play(move);
+      System.out.println((computerToMove ? "Computer" : "Person") + " move: " + board.formatMove(move));
+      System.out.print(board);
+    }
+
+    int result = endGame();
+    if (result == TicTacToe.PERSON_WIN) {
+      System.out.println("Person Wins!");
+    }
+    else if (result == TicTacToe.COMPUTER_WIN) {
+      System.out.println("Computer Wins!");
+    }
+    else {
+      System.out.println("Tie!");
+    }
+  }
+
+  /**
+   * Play one game in batch mode, without any output.
+   *
+   * @return TicTacToe.COMPUTER_WIN, TicTacToe.PERSON_WIN or TicTacToe.TIE.
+   */
+  private int playSimulated() {
+    board.reset();
+    while (!board.isOver()) {
+      if (board.getSideToMove() == Board.COMPUTER) {
+        board.play(computerStrategy.nextMove(board));
+      }
+      else {
+        board.play(personStrategy.nextMove(board));
+      }
+    }
+    return endGame();
+  }
+
+  /**
+   * Get the result of a game over and tell both strategies, the learning ones save their loses.
+   */
+  private int endGame() {
+    int result = TicTacToe.TIE;
+    if (board.getWinner() == Board.COMPUTER) {
+      result = TicTacToe.COMPUTER_WIN;
+    }
+    else if (board.getWinner() == Board.PERSON) {
+      result = TicTacToe.PERSON_WIN;
+    }
+    computerStrategy.gameEnded(board, result);
+    personStrategy.gameEnded(board, result);
+    return result;
+  }
+
+  /**
+   * Play many games in batch, on several threads, the same as TicTacToe.simulate().
+   */
+  public void simulate(long gameNumber, int threadNumber) {
+    final AtomicLong gamesLeft = new AtomicLong(gameNumber);
+    final LongAdder computerWins = new LongAdder();
+    final LongAdder personWins = new LongAdder();
+    final LongAdder ties = new LongAdder();
+    int positionsBefore = loseStore.size();
+    long startTime = System.nanoTime();
+
+    ExecutorService executor = Executors.newFixedThreadPool(threadNumber);
+    for (int ii = 0; ii < threadNumber; ii++) {
+      final BoardGame game = new BoardGame(this, random.split());
+      executor.execute(() -> {
+        while (gamesLeft.getAndDecrement() > 0) {
+          int result = game.playSimulated();
+          if (result == TicTacToe.COMPUTER_WIN) {
+            computerWins.increment();
+          }
+          else if (result == TicTacToe.PERSON_WIN) {
+            personWins.increment();
+          }
+          else {
+            ties.increment();
+          }
+        }
+      });
+    }
+    executor.shutdown();
+    try {
+      executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    long elapsedMillis = Math.max(1, (System.nanoTime() - startTime) / 1000000);
+    System.out.println("Simulated " + gameNumber + " games of " + board.getSize() + "x" + board.getSize() +
+                       ", " + board.getWinLength() + " in a row, on " + threadNumber + " threads in " +
+                       elapsedMillis + " ms (" + (gameNumber * 1000 / elapsedMillis) + " games/s)");
+    System.out.println("Computer wins: " + computerWins.sum() + ", Person wins: " + personWins.sum() +
+                       ", Ties: " + ties.sum());
+    System.out.println("Lose positions learned: " + (loseStore.size() - positionsBefore) + " in " +
+                       (loseStore.getMemoryBytes() >> 10) + "K bytes");
+  }
+}
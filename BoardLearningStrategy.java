@@ -0,0 +1,53 @@
+import java.util.SplittableRandom;
+
+/**
+ * BoardLearningStrategy - Pick a random move avoiding the lose positions learned, LearningStrategy for
+ * a board of any size.
+ * <p>
+ * The lose moves come from a BoardLoseStore, one hash lookup for each free cell.  If all the free
+ * cells lead to a lose, the side has lost already and picks any free cell.  When it loses a game, the
+ * position before the winning move is learned as a lose position.
+ */
+public class BoardLearningStrategy implements BoardStrategy {
+  private BoardLoseStore loseStore;
+  private SplittableRandom random;
+  private int side;
+
+  public BoardLearningStrategy(BoardLoseStore loseStore, SplittableRandom random) {
+    this.loseStore = loseStore;
+    this.random = random;
+    side = Board.COMPUTER;
+  }
+
+  public int nextMove(Board board) {
+    side = board.getSideToMove();
+
+    //a random one of the moves not leading to a lose, picked in one pass
+    int freeCount = board.getFreeCount();
+    int move = 0;
+    int candidateCount = 0;
+    for (int ii = 0; ii < freeCount; ii++) {
+      int freeMove = board.getFreeMove(ii);
+      if (!loseStore.isLoseMove(board, freeMove)) {
+        candidateCount++;
+        if (random.nextInt(candidateCount) == 0) {
+          move = freeMove;
+        }
+      }
+    }
+    if (candidateCount == 0) {
+      move = board.getFreeMove(random.nextInt(freeCount));
+    }
+    return move;
+  }
+
+  public void gameEnded(Board board, int result) {
+    int loser = (result == TicTacToe.PERSON_WIN) ? Board.COMPUTER : Board.PERSON;
+    if ( (result == TicTacToe.TIE) || (loser != side) ) {
+      return;
+    }
+    Board beforeWin = new Board(board);
+    beforeWin.undo();  //the loser moved last
+    loseStore.add(beforeWin);
+  }
+}
@@ -0,0 +1,144 @@
+/**
+ * BoardLoseStore - The lose positions learned on a board of any size, see Board.
+ * <p>
+ * It is LosePositionStore for the boards too large to index every position: a lose position is kept
+ * by its canonical Zobrist hash, the same for all the move orders and symmetries reaching it.  A
+ * position where the computer moved last is a computer lose, and one where the person moved last
+ * is a person lose, as in LosePositionStore.
+ * <p>
+ * The derivation is the one of the 3x3 board for any size.  On the 3x3 board, 3 lose patterns of 7
+ * moves with the same first 6 moves make the 6 moves a lose, since the side to move has only 3
+ * choices left.  On any board, when the number of lose positions after a position reaches the
+ * number of choices left there, that is all the free cells, the side to move has lost already, and
+ * every position one move of the other side before it is a lose position.  The new lose positions
+ * are checked the same way, so the loses cascade down.
+ * <p>
+ * The hashes are kept as primitive longs in a LongHashSet, about 16 bytes for a position, so tens of
+ * millions of lose positions fit in memory.  Optionally a BloomFilter in front of it answers most of
+ * the lookups of the moves not leading to a lose, nearly all of them, from a small bit array instead
+ * of the large set.
+ * <p>
+ * The store can be shared by games played at the same time: the set and the filter take no lock to
+ * look up, and the derivation works on a copy of the board.
+ */
+public class BoardLoseStore {
+  private final LongHashSet losePositions;
+  private final BloomFilter filter;  //null without a filter
+
+  public BoardLoseStore() {
+    losePositions = new LongHashSet();
+    filter = null;
+  }
+
+  /**
+   * A store with a BloomFilter sized for a number of lose positions.
+   */
+  public BoardLoseStore(long expectedPositions) {
+    losePositions = new LongHashSet();
+    filter = new BloomFilter(expectedPositions);
+  }
+
+  /**
+   * Add the position of a board as a lose position for the side who moved last, and derive the
+   * shorter lose positions it completes.  The board is not changed.
+   *
+   * @return true if the position is new, false if it or a symmetric position is already a lose.
+   */
+  public boolean add(Board board) {
+    if (!mark(board.getCanonicalHash())) {
+      return false;
+    }
+    derive(new Board(board));
+    return true;
+  }
+
+  /**
+   * Check if the position of a board is a lose for the side who moved last.
+   */
+  public boolean isLose(Board board) {
+    return contains(board.getCanonicalHash());
+  }
+
+  /**
+   * Check if a move of the side to move leads to a lose position for it.
+   */
+  public boolean isLoseMove(Board board, int move) {
+    return contains(board.getCanonicalHashWith(move, board.getSideToMove()));
+  }
+
+  public int size() {
+    return (int) losePositions.size();
+  }
+
+  /**
+   * The bytes taken by the lose positions and the filter.
+   */
+  public long getMemoryBytes() {
+    return losePositions.getMemoryBytes() + ((filter == null) ? 0 : filter.getMemoryBytes());
+  }
+
+  private boolean contains(long hash) {
+    return ( (filter == null) || filter.mightContain(hash) ) && losePositions.contains(hash);
+  }
+
+  private boolean mark(long hash) {
+    if (filter != null) {
+      filter.add(hash);  //before the set, a position in the set is always in the filter
+    }
+    return losePositions.add(hash);
+  }
+
+  /**
+   * Derive the lose positions completed by a new lose position.  For each stone of the side who
+   * moved last, take the position before it; if all the free cells there lead to lose positions, every
+   * position one stone of the other side before it is a lose position.  The board is used as a
+   * scratch position and left as it was.
+   */
+  private void derive(Board position) {
+    if (position.hasAnyLine()) {
+      return;  //the game has ended already
+    }
+    int computerStones = position.countStones(Board.COMPUTER);
+    int personStones = position.countStones(Board.PERSON);
+    int mover = (computerStones > personStones) ? Board.COMPUTER : Board.PERSON;
+    int other = (mover == Board.COMPUTER) ? Board.PERSON : Board.COMPUTER;
+    if ((mover == Board.COMPUTER ? computerStones : personStones) == 0) {
+      return;
+    }
+
+    for (int moverMove = 1; moverMove <= position.getCellCount(); moverMove++) {
+      if (position.getSide(moverMove) != mover) {
+        continue;
+      }
+      position.takeStone(moverMove);
+      if (isAllLose(position, mover)) {
+        for (int otherMove = 1; otherMove <= position.getCellCount(); otherMove++) {
+          if (position.getSide(otherMove) != other) {
+            continue;
+          }
+          position.takeStone(otherMove);
+          if (mark(position.getCanonicalHash())) {
+            derive(position);
+          }
+          position.putStone(otherMove, other);
+        }
+      }
+      position.putStone(moverMove, mover);
+    }
+  }
+
+  /**
+   * Check if the count of lose positions one stone of a side after a position is the number of
+   * choices left, all the free cells.  It stops at the first free cell not leading to a lose.
+   */
+  private boolean isAllLose(Board position, int side) {
+    int loseCount = 0;
+    for (int ii = 0; ii < position.getFreeCount(); ii++) {
+      if (!contains(position.getCanonicalHashWith(position.getFreeMove(ii), side))) {
+        break;
+      }
+      loseCount++;
+    }
+    return loseCount == position.getFreeCount();
+  }
+}
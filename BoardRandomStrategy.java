@@ -0,0 +1,16 @@
+import java.util.SplittableRandom;
+
+/**
+ * BoardRandomStrategy - Pick a random free cell, RandomStrategy for a board of any size.
+ */
+public class BoardRandomStrategy implements BoardStrategy {
+  private SplittableRandom random;
+
+  public BoardRandomStrategy(SplittableRandom random) {
+    this.random = random;
+  }
+
+  public int nextMove(Board board) {
+    return board.getFreeMove(random.nextInt(board.getFreeCount()));
+  }
+}
@@ -0,0 +1,24 @@
+/**
+ * BoardStrategy - A player of the game on a board of any size, see Board and BoardGame.
+ * <p>
+ * It is MoveStrategy for the boards larger than 3x3.  The strategies are:<br>
+ * BoardLearningStrategy, random moves avoiding the lose positions learned.<br>
+ * BoardRandomStrategy, random moves only.<br>
+ * MonteCarloStrategy, Monte Carlo tree search.
+ */
+public interface BoardStrategy {
+  /**
+   * Pick the next move for the side to move.  The board is left as it was.
+   *
+   * @return the move, the cell index + 1.
+   */
+  int nextMove(Board board);
+
+  /**
+   * Tell the strategy a game it played has ended, so it can learn from it.
+   *
+   * @param result TicTacToe.COMPUTER_WIN, TicTacToe.PERSON_WIN or TicTacToe.TIE.
+   */
+  default void gameEnded(Board board, int result) {
+  }
+}
@@ -0,0 +1,143 @@
+/**
+ * BoardSymmetry - The 8 symmetries of the Tic Tac Toe board.
+ * <p>
+ * The board has 4 rotations (0, 90, 180, 270 degree) and 4 reflections (horizontal, vertical and the
+ * two diagonals).  Games which are the same under one of these transforms lead to the same result, so
+ * a game is only stored in one canonical form: the transform of its moves which is the smallest when
+ * the moves are compared one by one in the order played.
+ * <p>
+ * Since the canonical form is the smallest move by move, any first moves of a canonical game are
+ * canonical too.  A position is canonical the same way, by its smallest base 3 index (see GameState).
+ * <p>
+ * The moves use the one digit encoding of TicTacToe, and the games the packed history of GameState.
+ * The transforms are returned as a bit mask, bit t for transform t, transform 0 is the identity.
+ */
+public class BoardSymmetry {
+  public static final int TRANSFORM_NUMBER = 8;
+
+  //TRANSFORMS[t][move] is the move after transform t, index 0 is not used
+  private static final int[][] TRANSFORMS = new int[TRANSFORM_NUMBER][10];
+  private static final int[] INVERSE = new int[TRANSFORM_NUMBER];
+  private static final int[] CANONICAL_POSITIONS = new int[GameState.POSITION_NUMBER];
+  private static final byte[] CANONICAL_TRANSFORMS = new byte[GameState.POSITION_NUMBER];
+
+  static {
+    for (int move = 1; move <= 9; move++) {
+      int x = (move - 1) / 3;  //row, 0 to 2
+      int y = (move - 1) % 3;  //column, 0 to 2
+      TRANSFORMS[0][move] = x*3 + y + 1;          //identity
+      TRANSFORMS[1][move] = y*3 + (2-x) + 1;      //rotate 90 degree
+      TRANSFORMS[2][move] = (2-x)*3 + (2-y) + 1;  //rotate 180 degree
+      TRANSFORMS[3][move] = (2-y)*3 + x + 1;      //rotate 270 degree
+      TRANSFORMS[4][move] = x*3 + (2-y) + 1;      //reflect left-right
+      TRANSFORMS[5][move] = (2-x)*3 + y + 1;      //reflect top-bottom
+      TRANSFORMS[6][move] = y*3 + x + 1;          //reflect on diagonal 1,1-3,3
+      TRANSFORMS[7][move] = (2-y)*3 + (2-x) + 1;  //reflect on diagonal 1,3-3,1
+    }
+
+    for (int t = 0; t < TRANSFORM_NUMBER; t++) {
+      for (int inv = 0; inv < TRANSFORM_NUMBER; inv++) {
+        if (TRANSFORMS[inv][TRANSFORMS[t][1]] == 1 && TRANSFORMS[inv][TRANSFORMS[t][2]] == 2) {
+          INVERSE[t] = inv;
+        }
+      }
+    }
+
+    for (int index = 0; index < GameState.POSITION_NUMBER; index++) {
+      int computerMask = GameState.getComputerMask(index);
+      int personMask = GameState.getPersonMask(index);
+      CANONICAL_POSITIONS[index] = index;
+      for (int t = 1; t < TRANSFORM_NUMBER; t++) {
+        int transformed = GameState.getPositionIndex(transformMask(computerMask, t), transformMask(personMask, t));
+        if (transformed < CANONICAL_POSITIONS[index]) {
+          CANONICAL_POSITIONS[index] = transformed;
+          CANONICAL_TRANSFORMS[index] = (byte) t;
+        }
+      }
+    }
+  }
+
+  public static int transformMove(int move, int t) {
+    return TRANSFORMS[t][move];
+  }
+
+  public static int inverse(int t) {
+    return INVERSE[t];
+  }
+
+  /**
+   * Apply transform t to a move mask, bit (move-1) for a move.
+   */
+  public static int transformMask(int moves, int t) {
+    int result = 0;
+    while (moves != 0) {
+      int move = Integer.numberOfTrailingZeros(moves) + 1;
+      result |= 1 << (TRANSFORMS[t][move] - 1);
+      moves &= moves - 1;
+    }
+    return result;
+  }
+
+  /**
+   * Apply transform t to the first moveCount moves of a packed history.
+   */
+  public static long transform(long history, int moveCount, int t) {
+    long result = 0L;
+    for (int ii = 0; ii < moveCount; ii++) {
+      int move = (int) (history >>> (4*ii)) & 0xF;
+      result |= ((long) TRANSFORMS[t][move]) << (4*ii);
+    }
+    return result;
+  }
+
+  /**
+   * Get all the transforms turning the first moveCount moves into the canonical form.
+   * <p>
+   * There is more than one when the moves are symmetric, for example a game with only the center
+   * move is canonical under all 8 transforms.
+   *
+   * @return bit mask of the transforms, bit t for transform t.
+   */
+  public static int getCanonicalTransforms(long history, int moveCount) {
+    int transforms = (1 << TRANSFORM_NUMBER) - 1;
+    for (int ii = 0; ii < moveCount; ii++) {
+      int move = (int) (history >>> (4*ii)) & 0xF;
+      int minMove = 10;
+      for (int t = 0; t < TRANSFORM_NUMBER; t++) {
+        if ( ((transforms & (1 << t)) != 0) && (TRANSFORMS[t][move] < minMove) ) {
+          minMove = TRANSFORMS[t][move];
+        }
+      }
+      for (int t = 0; t < TRANSFORM_NUMBER; t++) {
+        if (TRANSFORMS[t][move] != minMove) {
+          transforms &= ~(1 << t);
+        }
+      }
+    }
+    return transforms;
+  }
+
+  /**
+   * Get the canonical form of the first moveCount moves of a packed history.
+   */
+  public static long canonical(long history, int moveCount) {
+    int t = Integer.numberOfTrailingZeros(getCanonicalTransforms(history, moveCount));
+    return transform(history, moveCount, t);
+  }
+
+  /**
+   * Get the canonical index of a position, the smallest index of the position under the 8 transforms.
+   * All the positions symmetric with each other have the same canonical index.
+   */
+  public static int getCanonicalPosition(int positionIndex) {
+    return CANONICAL_POSITIONS[positionIndex];
+  }
+
+  /**
+   * Get a transform turning a position into its canonical position, so a move from the position is
+   * the move turned by this transform from the canonical position.
+   */
+  public static int getCanonicalTransform(int positionIndex) {
+    return CANONICAL_TRANSFORMS[positionIndex];
+  }
+}
@@ -0,0 +1,121 @@
+import java.io.*;
+
+/**
+ * ConsoleRenderer - Draw the moves and the board of a game on the console, with no allocation.
+ * <p>
+ * A frame is the list of the moves and the 5 lines of the board, the same as before:<br>
+ * Total Moves: (1,1) (2,2)<br>
+ * &nbsp;X |   |   <br>
+ * ---|---|---<br>
+ * &nbsp;  | O |   <br>
+ * ---|---|---<br>
+ * &nbsp;  |   |   <br>
+ * It is filled in a byte buffer kept from frame to frame, the board from a template copied in one
+ * arraycopy and the marks put in their cells, and written to the output in one call.  The output
+ * should be a buffered PrintStream without auto flush (see createOutput()), flushed before waiting
+ * for the person, so a game costs a few writes to the console instead of one for each piece of text.
+ * <p>
+ * In quiet mode nothing is drawn, for the games played without anybody watching.
+ */
+public class ConsoleRenderer {
+  private static final int LINE_LENGTH = 12;  //"   |   |   \n"
+  private static final byte[] BOARD_TEMPLATE = ("   |   |   \n" +
+                                                "---|---|---\n" +
+                                                "   |   |   \n" +
+                                                "---|---|---\n" +
+                                                "   |   |   \n").getBytes();
+  private static final byte[] TOTAL_MOVES = "Total Moves: ".getBytes();
+  private static final byte[] COMPUTER_MOVE = "Computer move: ".getBytes();
+  private static final byte[] PERSON_MOVE = "Person move: ".getBytes();
+
+  private final PrintStream output;
+  private final byte[] frame;
+  private final byte[] line;
+  private boolean quiet;
+
+  public ConsoleRenderer(PrintStream output) {
+    this.output = output;
+    frame = new byte[TOTAL_MOVES.length + TicTacToe.MAX_MOVE_NUMBER * 6 + 1 + BOARD_TEMPLATE.length];
+    line = new byte[COMPUTER_MOVE.length + 4];
+    quiet = false;
+  }
+
+  /**
+   * A buffered PrintStream on the standard output, without auto flush.
+   */
+  public static PrintStream createOutput() {
+    return new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 8192), false);
+  }
+
+  public PrintStream getOutput() {
+    return output;
+  }
+
+  public void setQuiet(boolean quiet) {
+    this.quiet = quiet;
+  }
+
+  public boolean isQuiet() {
+    return quiet;
+  }
+
+  /**
+   * Draw a move as "Computer move: x,y" or "Person move: x,y".
+   */
+  public void showMove(boolean computer, int move) {
+    if (quiet) {
+      return;
+    }
+    byte[] prefix = computer ? COMPUTER_MOVE : PERSON_MOVE;
+    System.arraycopy(prefix, 0, line, 0, prefix.length);
+    int length = putMove(line, prefix.length, move);
+    line[length] = '\n';
+    output.write(line, 0, length + 1);
+  }
+
+  /**
+   * Draw the moves and the board of a game in one write.
+   */
+  public void showBoard(GameState state) {
+    if (quiet) {
+      return;
+    }
+    System.arraycopy(TOTAL_MOVES, 0, frame, 0, TOTAL_MOVES.length);
+    int length = TOTAL_MOVES.length;
+    for (int ii = 0; ii < state.getMoveCount(); ii++) {
+      frame[length] = '(';
+      length = putMove(frame, length + 1, state.getMove(ii));
+      frame[length] = ')';
+      frame[length + 1] = ' ';
+      length += 2;
+    }
+    frame[length] = '\n';
+    length++;
+
+    int board = length;
+    System.arraycopy(BOARD_TEMPLATE, 0, frame, board, BOARD_TEMPLATE.length);
+    for (int ii = 0; ii < state.getMoveCount(); ii++) {
+      int move = state.getMove(ii);
+      int x = (move - 1) / 3;
+      int y = (move - 1) % 3;
+      frame[board + x*2*LINE_LENGTH + 1 + y*4] = (byte) ((ii % 2 == 0) ? 'X' : 'O');  //X: computer, O: person
+    }
+    output.write(frame, 0, board + BOARD_TEMPLATE.length);
+  }
+
+  public void flush() {
+    output.flush();
+  }
+
+  /**
+   * Put a move as "x,y" in a buffer.
+   *
+   * @return the position after it.
+   */
+  private static int putMove(byte[] buffer, int offset, int move) {
+    buffer[offset] = (byte) ('1' + (move - 1) / 3);
+    buffer[offset + 1] = ',';
+    buffer[offset + 2] = (byte) ('1' + (move - 1) % 3);
+    return offset + 3;
+  }
+}
@@ -0,0 +1,288 @@
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import javax.management.*;
+
+/**
+ * EngineMetrics - Counters and latency histograms of the learning engine, to watch the learning and
+ * the move latency while it runs, without a profiler.
+ * <p>
+ * The counters are LongAdders, so the games played at the same time count without contention.  A
+ * batch game, about a microsecond, must not pay much more for its metrics: the lookups are added
+ * once a game, and only one move in TicTacToe.MOVE_SAMPLE_RATE is timed.  They cover:<br>
+ * the time to load the lose records and the number of records loaded,<br>
+ * the lose positions by the number of moves reaching them, read from the LosePositionStore,<br>
+ * the lose move lookups of LearningStrategy, one for each position it moves from, and the historical
+ * lose moves it skips, as many as the "Skip a historical lose move" lines on the console,<br>
+ * the games played, won, lost and tied, and the lose records saved,<br>
+ * the latency of the computer moves, one of each TicTacToe.MOVE_SAMPLE_RATE in batch.
+ * <p>
+ * They are seen through JMX once register() is called, and dumped every few seconds by startDump(),
+ * as CSV lines to a file or as text lines to the console, with the rates of the last interval, so
+ * the win rate shows how the learning converges.
+ */
+public class EngineMetrics implements EngineMetricsMXBean {
+  public static final String OBJECT_NAME = "TicTacToe:type=EngineMetrics";
+  public static final String CSV_HEADER = "time_ms,elapsed_s,games,games_per_s,computer_win_rate," +
+                                          "person_win_rate,tie_rate,lose_move_lookups_per_s,skipped_lose_moves," +
+                                          "lose_records_saved,lose_positions,move_p50_ns,move_p99_ns,move_max_ns";
+
+  private final long startNanos;
+  private volatile long loadMillis;
+  private volatile long loadedRecordCount;
+  private volatile LosePositionStore losePositionStore;
+  private final LongAdder computerWins;
+  private final LongAdder personWins;
+  private final LongAdder ties;
+  private final LongAdder loseMoveLookups;
+  private final LongAdder skippedLoseMoves;
+  private final LongAdder loseRecordsSaved;
+  private final LatencyHistogram moveLatency;
+
+  private ScheduledExecutorService dumpExecutor;
+  private PrintStream dumpOutput;
+  private boolean dumpCsv;
+  private long[] lastDump;  //elapsed nanos, games, computer wins, person wins, ties, lose move lookups
+
+  public EngineMetrics() {
+    startNanos = System.nanoTime();
+    computerWins = new LongAdder();
+    personWins = new LongAdder();
+    ties = new LongAdder();
+    loseMoveLookups = new LongAdder();
+    skippedLoseMoves = new LongAdder();
+    loseRecordsSaved = new LongAdder();
+    moveLatency = new LatencyHistogram();
+    lastDump = new long[6];
+  }
+
+  /**
+   * Record the loading of the lose records, and the store the lose positions are counted from.
+   */
+  public void loaded(long millis, long recordCount, LosePositionStore store) {
+    loadMillis = millis;
+    loadedRecordCount = recordCount;
+    losePositionStore = store;
+  }
+
+  /**
+   * @param result TicTacToe.COMPUTER_WIN, TicTacToe.PERSON_WIN or TicTacToe.TIE.
+   */
+  public void gameEnded(int result) {
+    if (result == TicTacToe.COMPUTER_WIN) {
+      computerWins.increment();
+    }
+    else if (result == TicTacToe.PERSON_WIN) {
+      personWins.increment();
+    }
+    else {
+      ties.increment();
+    }
+  }
+
+  /**
+   * Count the lose move lookups of a game and the lose moves skipped.
+   */
+  public void loseMovesLooked(int lookups, int skipped) {
+    loseMoveLookups.add(lookups);
+    if (skipped != 0) {
+      skippedLoseMoves.add(skipped);
+    }
+  }
+
+  public void loseRecordSaved() {
+    loseRecordsSaved.increment();
+  }
+
+  public void moveTime(long nanos) {
+    moveLatency.record(nanos);
+  }
+
+  public long getLoadMillis() {
+    return loadMillis;
+  }
+
+  public long getLoadedRecordCount() {
+    return loadedRecordCount;
+  }
+
+  public int getLosePositionCount() {
+    LosePositionStore store = losePositionStore;
+    return (store == null) ? 0 : store.size();
+  }
+
+  public long[] getLosePositionsByLength() {
+    long[] counts = new long[TicTacToe.MAX_MOVE_NUMBER + 1];
+    LosePositionStore store = losePositionStore;
+    if (store != null) {
+      int[] positions = store.getLosePositions();
+      for (int ii = 0; ii < positions.length; ii++) {
+        counts[Integer.bitCount(GameState.getComputerMask(positions[ii]) | GameState.getPersonMask(positions[ii]))]++;
+      }
+    }
+    return counts;
+  }
+
+  public long getGamesPlayed() {
+    return computerWins.sum() + personWins.sum() + ties.sum();
+  }
+
+  public long getComputerWins() {
+    return computerWins.sum();
+  }
+
+  public long getPersonWins() {
+    return personWins.sum();
+  }
+
+  public long getTies() {
+    return ties.sum();
+  }
+
+  public double getGamesPerSecond() {
+    return getGamesPlayed() / getElapsedSeconds();
+  }
+
+  public long getLoseMoveLookups() {
+    return loseMoveLookups.sum();
+  }
+
+  public double getLoseMoveLookupsPerSecond() {
+    return loseMoveLookups.sum() / getElapsedSeconds();
+  }
+
+  public long getSkippedLoseMoves() {
+    return skippedLoseMoves.sum();
+  }
+
+  public long getLoseRecordsSaved() {
+    return loseRecordsSaved.sum();
+  }
+
+  public long getMoveLatencySamples() {
+    return moveLatency.getCount();
+  }
+
+  public double getMoveLatencyMeanNanos() {
+    return moveLatency.getMeanNanos();
+  }
+
+  public long getMoveLatencyP50Nanos() {
+    return moveLatency.getPercentileNanos(50);
+  }
+
+  public long getMoveLatencyP99Nanos() {
+    return moveLatency.getPercentileNanos(99);
+  }
+
+  public long getMoveLatencyMaxNanos() {
+    return moveLatency.getMaxNanos();
+  }
+
+  private double getElapsedSeconds() {
+    return Math.max(1L, System.nanoTime() - startNanos) / 1e9;
+  }
+
+  /**
+   * Register the metrics with the platform MBean server, as OBJECT_NAME.  A second registration,
+   * such as by a second game in the same JVM, replaces the first one.
+   */
+  public void register() {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(OBJECT_NAME);
+      if (server.isRegistered(name)) {
+        server.unregisterMBean(name);
+      }
+      server.registerMBean(this, name);
+    } catch (JMException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Dump the metrics every intervalSeconds, and once more by stopDump().
+   *
+   * @param fileName a CSV file, appended with a header if it is new, or "-" for text lines to the
+   *                 console.
+   */
+  public synchronized void startDump(String fileName, long intervalSeconds) throws IOException {
+    if (fileName.equals("-")) {
+      dumpOutput = System.out;
+      dumpCsv = false;
+    }
+    else {
+      boolean newFile = !new File(fileName).exists() || (new File(fileName).length() == 0);
+      dumpOutput = new PrintStream(new FileOutputStream(fileName, true), true);
+      dumpCsv = true;
+      if (newFile) {
+        dumpOutput.println(CSV_HEADER);
+      }
+    }
+
+    dumpExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "engine-metrics");
+      thread.setDaemon(true);
+      return thread;
+    });
+    dumpExecutor.scheduleAtFixedRate(this::dump, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Stop the dump started by startDump(), after a last dump.
+   */
+  public synchronized void stopDump() {
+    if (dumpExecutor == null) {
+      return;
+    }
+    dumpExecutor.shutdown();
+    try {
+      dumpExecutor.awaitTermination(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    dumpExecutor = null;
+    dump();
+    if (dumpOutput != System.out) {
+      dumpOutput.close();
+    }
+    dumpOutput = null;
+  }
+
+  /**
+   * Write one dump line, with the rates since the last one.
+   */
+  synchronized void dump() {
+    if (dumpOutput == null) {
+      return;
+    }
+    long[] now = {System.nanoTime() - startNanos, getGamesPlayed(), computerWins.sum(), personWins.sum(),
+                  ties.sum(), loseMoveLookups.sum()};
+    double seconds = Math.max(1L, now[0] - lastDump[0]) / 1e9;
+    long games = now[1] - lastDump[1];
+    double gamesPerSecond = games / seconds;
+    double computerWinRate = (games == 0) ? 0.0 : (double) (now[2] - lastDump[2]) / games;
+    double personWinRate = (games == 0) ? 0.0 : (double) (now[3] - lastDump[3]) / games;
+    double tieRate = (games == 0) ? 0.0 : (double) (now[4] - lastDump[4]) / games;
+    double lookupsPerSecond = (now[5] - lastDump[5]) / seconds;
+    lastDump = now;
+
+    if (dumpCsv) {
+      dumpOutput.println(System.currentTimeMillis() + "," + String.format("%.3f", now[0] / 1e9) + "," + now[1] + "," +
+                         String.format("%.1f,%.4f,%.4f,%.4f,%.1f", gamesPerSecond, computerWinRate, personWinRate,
+                                       tieRate, lookupsPerSecond) + "," +
+                         getSkippedLoseMoves() + "," + getLoseRecordsSaved() + "," + getLosePositionCount() + "," +
+                         getMoveLatencyP50Nanos() + "," + getMoveLatencyP99Nanos() + "," + getMoveLatencyMaxNanos());
+    }
+    else {
+      dumpOutput.println(String.format("[metrics] %.1fs games: %d (%.0f/s) win/lose/tie: %.3f/%.3f/%.3f " +
+                                       "lookups: %.0f/s skipped: %d saved: %d lose positions: %d " +
+                                       "move p50/p99/max: %d/%d/%d ns",
+                                       now[0] / 1e9, now[1], gamesPerSecond, computerWinRate, personWinRate, tieRate,
+                                       lookupsPerSecond, getSkippedLoseMoves(), getLoseRecordsSaved(),
+                                       getLosePositionCount(), getMoveLatencyP50Nanos(), getMoveLatencyP99Nanos(),
+                                       getMoveLatencyMaxNanos()));
+    }
+  }
+}
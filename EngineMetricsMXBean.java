@@ -0,0 +1,52 @@
+/**
+ * EngineMetricsMXBean - The metrics of EngineMetrics seen through JMX, such as in jconsole under
+ * "TicTacToe:type=EngineMetrics".  The rates are the averages since the start.
+ */
+public interface EngineMetricsMXBean {
+  long getLoadMillis();
+
+  long getLoadedRecordCount();
+
+  int getLosePositionCount();
+
+  /**
+   * The lose positions by the number of moves reaching them, index 0 to 9, the loaded and the
+   * derived ones.
+   */
+  long[] getLosePositionsByLength();
+
+  long getGamesPlayed();
+
+  long getComputerWins();
+
+  long getPersonWins();
+
+  long getTies();
+
+  double getGamesPerSecond();
+
+  /**
+   * The lookups of the lose moves of a position by LearningStrategy, one a computer move.
+   */
+  long getLoseMoveLookups();
+
+  double getLoseMoveLookupsPerSecond();
+
+  long getSkippedLoseMoves();
+
+  long getLoseRecordsSaved();
+
+  /**
+   * The computer moves timed, all of them in a game played on the console and one of each
+   * TicTacToe.MOVE_SAMPLE_RATE in batch.
+   */
+  long getMoveLatencySamples();
+
+  double getMoveLatencyMeanNanos();
+
+  long getMoveLatencyP50Nanos();
+
+  long getMoveLatencyP99Nanos();
+
+  long getMoveLatencyMaxNanos();
+}
@@ -0,0 +1,153 @@
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.LongConsumer;
+
+/**
+ * ExhaustiveTrainer - Train the learning computer against every possible person, instead of random
+ * games.
+ * <p>
+ * A pass walks the whole game tree played by the learning computer: at a computer move it follows
+ * every move the learning strategy may pick, the moves not leading to a lose position (all the free
+ * positions if they all lose), and at a person move it follows every free position.  Every game
+ * the person wins is a lose of the computer, and the ones teaching a new lose position are saved
+ * and learned right away, with the shorter lose positions they complete (see
+ * LosePositionStore.add()).  The new loses change the moves of the computer, so the passes are
+ * repeated until one finds no new lose position: then no person can win a game the computer has
+ * not learned already.  The passes are run by TicTacToe.train().
+ * <p>
+ * The tree is walked by a fork/join depth first search: the first SPLIT_DEPTH moves are split into
+ * tasks run in parallel, sharing the store, and the rest of each branch is walked in its task.
+ */
+public class ExhaustiveTrainer {
+  private static final int SPLIT_DEPTH = 3;
+
+  private final LosePositionStore losePositionStore;
+  private final LongConsumer loseRecordSink;
+  private final ForkJoinPool pool;
+
+  private final LongAdder nodeCount;
+  private final LongAdder loseCount;
+  private final LongAdder newLoseCount;
+
+  /**
+   * @param loseRecordSink gets the record of each game teaching a new lose, in the canonical form.
+   */
+  public ExhaustiveTrainer(LosePositionStore losePositionStore, LongConsumer loseRecordSink, ForkJoinPool pool) {
+    this.losePositionStore = losePositionStore;
+    this.loseRecordSink = loseRecordSink;
+    this.pool = pool;
+    nodeCount = new LongAdder();
+    loseCount = new LongAdder();
+    newLoseCount = new LongAdder();
+  }
+
+  /**
+   * Run one pass over the whole game tree.
+   *
+   * @return the number of new lose positions learned from the games of the pass, 0 when the
+   *         training is done.
+   */
+  public long runPass() {
+    nodeCount.reset();
+    loseCount.reset();
+    newLoseCount.reset();
+    pool.invoke(new Walk(new GameState()));
+    return newLoseCount.sum();
+  }
+
+  /**
+   * The positions walked by the last pass.
+   */
+  public long getLastNodeCount() {
+    return nodeCount.sum();
+  }
+
+  /**
+   * The games won by the person in the last pass.
+   */
+  public long getLastLoseCount() {
+    return loseCount.sum();
+  }
+
+  public long getLastNewLoseCount() {
+    return newLoseCount.sum();
+  }
+
+  /**
+   * Walk a game position: split into parallel tasks near the top, then walk it in place.
+   */
+  private class Walk extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final GameState state;
+
+    Walk(GameState state) {
+      this.state = state;
+    }
+
+    protected void compute() {
+      if (state.getMoveCount() >= SPLIT_DEPTH) {
+        walk(state);
+        return;
+      }
+      nodeCount.increment();
+      int moves = getMoves(state);
+      Walk[] walks = new Walk[Integer.bitCount(moves)];
+      for (int ii = 0; moves != 0; moves &= moves - 1, ii++) {
+        GameState next = new GameState(state);
+        next.play(Integer.numberOfTrailingZeros(moves) + 1);
+        walks[ii] = new Walk(next);
+      }
+      invokeAll(walks);
+    }
+  }
+
+  /**
+   * Walk all the games from a position, depth first.
+   */
+  private void walk(GameState state) {
+    nodeCount.increment();
+    if (state.hasWinner()) {
+      if (state.getMoveCount() % 2 == 0) {  //the person moved last
+        lose(state);
+      }
+      return;
+    }
+    if (state.getMoveCount() >= TicTacToe.MAX_MOVE_NUMBER) {
+      return;
+    }
+
+    for (int moves = getMoves(state); moves != 0; moves &= moves - 1) {
+      GameState next = new GameState(state);
+      next.play(Integer.numberOfTrailingZeros(moves) + 1);
+      walk(next);
+    }
+  }
+
+  /**
+   * The moves to follow from a position: the moves the learning computer may pick, see
+   * LearningStrategy.nextMove(), or all the free positions for the person.
+   */
+  private int getMoves(GameState state) {
+    int freeMoves = state.getFreeMoves();
+    if (state.getMoveCount() % 2 != 0) {
+      return freeMoves;
+    }
+    int candidateMoves = freeMoves & ~losePositionStore.getLoseMoves(state);
+    return (candidateMoves != 0) ? candidateMoves : freeMoves;
+  }
+
+  /**
+   * A game won by the person: learn the lose position before the winning move, and save the record
+   * if it is new.
+   */
+  private void lose(GameState state) {
+    loseCount.increment();
+    int moveCount = state.getMoveCount();
+    long canonicalHistory = BoardSymmetry.canonical(state.getHistory(), moveCount);
+    if (losePositionStore.add(canonicalHistory, moveCount - 1)) {
+      newLoseCount.increment();
+      loseRecordSink.accept(canonicalHistory);
+    }
+  }
+}
@@ -0,0 +1,358 @@
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * GameServer - Host many games at the same time, each played by a person over a socket.
+ * <p>
+ * The protocol is one line per message.  The person sends a move as "row#,col#", such as "1,2", the
+ * same as on the console, or "quit" to leave.  The server sends:<br>
+ * "Computer move: row#,col#" for each computer move,<br>
+ * "Please enter your move:" when it waits for a move, or the message asking to re-enter a bad move,<br>
+ * "Person Wins!", "Computer Wins!" or "Tie!" at the end of a game, and a new game starts right away.
+ * <p>
+ * So a game can be played with a line tool such as "nc localhost 7777".
+ * <p>
+ * Each session is a small state machine on a non-blocking channel: a game (a TicTacToe in batch mode)
+ * and its input and output buffers.  Some worker threads each run a selector over their share of the
+ * sessions, and a move is played as soon as its line is read, so the time of a move depends on the
+ * move only, not on the number of sessions.  All the sessions share the lose positions and the lose
+ * records file of one TicTacToe loaded at startup, so a lose learned in one session is avoided in all
+ * of them.
+ * <p>
+ * A person sending lines without reading the answers would make the output of the session grow
+ * without end.  So when more than MAX_PENDING_OUTPUT bytes wait to be sent, the session stops reading
+ * until the person has read them; the output only grows by the answers of one input buffer past it.
+ */
+public class GameServer {
+  private static final int LINE_SIZE = 256;  //longest line accepted
+  private static final int MAX_PENDING_OUTPUT = 16384;  //output not read by the person, before reading stops
+  private static final long ACCEPT_RETRY_MILLIS = 100;  //pause after a failed accept, such as out of files
+
+  private TicTacToe shared;
+  private int port;
+  private Worker[] workers;
+  private SplittableRandom random;
+
+  public GameServer(TicTacToe shared, int port, int threadNumber) {
+    this.shared = shared;
+    this.port = port;
+    workers = new Worker[Math.max(1, threadNumber)];
+    random = new SplittableRandom();
+  }
+
+  /**
+   * Accept the connections until the server is stopped, and hand the sessions to the workers in turn.
+   * <p>
+   * A connection failing to accept or to set up is logged and dropped, and the server goes on.  Out
+   * of file descriptors, accept() fails until some sessions are closed, so it waits
+   * ACCEPT_RETRY_MILLIS before trying again rather than spinning.
+   */
+  public void run() throws IOException {
+    for (int ii = 0; ii < workers.length; ii++) {
+      workers[ii] = new Worker();
+      Thread thread = new Thread(workers[ii], "GameServer-" + ii);
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    ServerSocketChannel server = ServerSocketChannel.open();
+    try {
+      server.bind(new InetSocketAddress(port), 1024);
+      System.out.println("Game server on port " + port + " with " + workers.length + " threads");
+      for (int next = 0; ; ) {
+        SocketChannel channel;
+        try {
+          channel = server.accept();
+        } catch (IOException e) {
+          if (!server.isOpen()) {
+            throw e;
+          }
+          //such as too many open files: log it, and try again once some sessions are closed
+          e.printStackTrace();
+          try {
+            Thread.sleep(ACCEPT_RETRY_MILLIS);
+          } catch (InterruptedException ie) {
+            return;
+          }
+          continue;
+        }
+
+        try {
+          channel.configureBlocking(false);
+          channel.socket().setTcpNoDelay(true);  //one short line per move, do not wait to fill a packet
+          workers[next].addSession(new Session(channel, new TicTacToe(shared, random.split())));
+          next = (next + 1) % workers.length;
+        } catch (IOException e) {
+          e.printStackTrace();  //this connection only, the server goes on
+          try {
+            channel.close();
+          } catch (IOException ce) {
+            //the connection is gone anyway
+          }
+        }
+      }
+    } finally {
+      server.close();
+    }
+  }
+
+  /**
+   * A worker thread running the sessions handed to it.
+   */
+  private static class Worker implements Runnable {
+    private volatile Selector selector;
+    private Queue<Session> newSessions;
+    private volatile boolean stopped;
+
+    Worker() throws IOException {
+      selector = Selector.open();
+      newSessions = new ConcurrentLinkedQueue<Session>();
+    }
+
+    void addSession(Session session) {
+      if (stopped) {
+        session.close();
+        return;
+      }
+      newSessions.add(session);
+      if (stopped && newSessions.remove(session)) {
+        session.close();  //stopped while it was added
+        return;
+      }
+      selector.wakeup();
+    }
+
+    public void run() {
+      while (true) {
+        try {
+          selector.select();
+        } catch (IOException e) {
+          //the sessions can not be served any more: close them, and go on with a new selector
+          e.printStackTrace();
+          if (!reopen()) {
+            return;
+          }
+          continue;
+        }
+
+        Session session;
+        while ((session = newSessions.poll()) != null) {
+          try {
+            session.key = session.channel.register(selector, SelectionKey.OP_READ, session);
+            session.start();
+          } catch (IOException e) {
+            session.close();
+          } catch (RuntimeException e) {
+            e.printStackTrace();  //such as the lose records log failed, the other sessions go on
+            session.close();
+          }
+        }
+
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          SelectionKey key = keys.next();
+          keys.remove();
+          session = (Session) key.attachment();
+          try {
+            if (key.isValid() && key.isReadable()) {
+              session.read();
+            }
+            if (key.isValid() && key.isWritable()) {
+              session.write();
+            }
+          } catch (IOException e) {
+            session.close();
+          } catch (RuntimeException e) {
+            e.printStackTrace();
+            session.close();
+          }
+        }
+      }
+    }
+
+    /**
+     * Close all the sessions of the selector, and open a new one for the next sessions.
+     *
+     * @return false if no selector can be opened, then the sessions handed later are closed.
+     */
+    private boolean reopen() {
+      for (SelectionKey key : selector.keys()) {
+        ((Session) key.attachment()).close();
+      }
+      try {
+        selector.close();
+        selector = Selector.open();
+        return true;
+      } catch (IOException e) {
+        e.printStackTrace();
+        stopped = true;
+        Session session;
+        while ((session = newSessions.poll()) != null) {
+          session.close();
+        }
+        return false;
+      }
+    }
+  }
+
+  /**
+   * A person connected, playing one game after another.
+   */
+  private static class Session {
+    private SocketChannel channel;
+    private SelectionKey key;
+    private TicTacToe game;
+    private ByteBuffer input;
+    private ByteBuffer output;
+    private StringBuilder message;
+    private boolean closing;
+
+    Session(SocketChannel channel, TicTacToe game) {
+      this.channel = channel;
+      this.game = game;
+      input = ByteBuffer.allocate(LINE_SIZE);
+      output = ByteBuffer.allocate(1024);
+      message = new StringBuilder(128);
+      closing = false;
+    }
+
+    void start() throws IOException {
+      sendLine("Play game: a move is expressed as \"row#,col#\", such as \"1,2\"");
+      sendLine("Computer: X   Person: O");
+      startGame();
+      write();
+    }
+
+    private void startGame() {
+      sendComputerMove(game.startGame());
+      sendLine("Please enter your move:");
+    }
+
+    /**
+     * Read what has arrived, and play the move of each complete line.
+     */
+    void read() throws IOException {
+      if (channel.read(input) < 0) {
+        close();
+        return;
+      }
+
+      input.flip();
+      int lineStart = input.position();
+      for (int ii = input.position(); ii < input.limit(); ii++) {
+        if (input.get(ii) == '\n') {
+          String line = new String(input.array(), lineStart, ii - lineStart, StandardCharsets.US_ASCII).trim();
+          lineStart = ii + 1;
+          handleLine(line);
+          if (closing) {
+            break;
+          }
+        }
+      }
+      input.position(lineStart);
+      input.compact();
+
+      if (!input.hasRemaining()) {  //a line too long to be a move
+        input.clear();
+        sendLine("Bad move format, please re-enter:");
+      }
+      write();
+    }
+
+    private void handleLine(String line) {
+      if (line.equalsIgnoreCase("quit")) {
+        closing = true;
+        return;
+      }
+      if (line.length() == 0) {
+        return;
+      }
+
+      String msg = HumanStrategy.getInputMessage(line, game.getGameState());
+      if (!msg.matches("^\\d$")) {
+        sendLine(msg);
+        return;
+      }
+
+      int computerMove = game.playPersonMove(Integer.parseInt(msg));
+      if (computerMove != 0) {
+        sendComputerMove(computerMove);
+      }
+      if (!game.isGameOver()) {
+        sendLine("Please enter your move:");
+        return;
+      }
+
+      int result = game.endGame();
+      if (result == TicTacToe.PERSON_WIN) {
+        sendLine("Person Wins!");
+      }
+      else if (result == TicTacToe.COMPUTER_WIN) {
+        sendLine("Computer Wins!");
+      }
+      else {
+        sendLine("Tie!");
+      }
+      startGame();
+    }
+
+    private void sendComputerMove(int move) {
+      message.setLength(0);
+      message.append("Computer move: ").append((move - 1) / 3 + 1).append(',').append((move - 1) % 3 + 1);
+      sendLine(message);
+    }
+
+    private void sendLine(CharSequence line) {
+      if (output.remaining() < line.length() + 1) {
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(output.capacity() * 2, output.position() + line.length() + 1));
+        output.flip();
+        larger.put(output);
+        output = larger;
+      }
+      for (int ii = 0; ii < line.length(); ii++) {
+        output.put((byte) line.charAt(ii));
+      }
+      output.put((byte) '\n');
+    }
+
+    /**
+     * Write what is waiting to be sent, and wait for the channel to be writable again if it is not
+     * all written.  Reading stops while more than MAX_PENDING_OUTPUT bytes wait, and starts again
+     * once they are written.
+     */
+    void write() throws IOException {
+      output.flip();
+      channel.write(output);
+      output.compact();
+
+      if (output.position() > MAX_PENDING_OUTPUT) {
+        key.interestOps(SelectionKey.OP_WRITE);  //no more moves until the person reads the answers
+      }
+      else if (output.position() > 0) {
+        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+      }
+      else if (closing) {
+        close();
+      }
+      else {
+        key.interestOps(SelectionKey.OP_READ);
+      }
+    }
+
+    void close() {
+      if (key != null) {
+        key.cancel();
+      }
+      try {
+        channel.close();
+      } catch (IOException e) {
+        //the session is gone anyway
+      }
+    }
+  }
+}
@@ -0,0 +1,204 @@
+/**
+ * GameState - Compact state of one Tic Tac Toe game.
+ * <p>
+ * The moves use the same one digit encoding as TicTacToe: x,y==>(x-1)*3+y.  A move is stored as bit
+ * (move-1) in a 9-bit mask, one mask for the computer (X, the odd moves) and one for the person (O,
+ * the even moves).  All the moves in order are packed in a long with 4 bits per move, the first move
+ * in the lowest 4 bits, so the whole game is three primitive fields and nothing needs to be parsed.
+ * <p>
+ * A side wins when its mask covers one of the 8 line masks (3 rows, 3 columns, 2 diagonals), and
+ * the free moves are the bits not in either mask.
+ * <p>
+ * The position of the board, whatever the order of the moves, is identified by its base 3 index:
+ * one digit per board position, 0 empty, 1 computer, 2 person, the digit of move m having the weight
+ * 3^(m-1).  So all the positions fit in an array of POSITION_NUMBER entries, and two move orders
+ * reaching the same board share what is stored for it.
+ */
+public class GameState {
+  public static final int ALL_MOVES = 0x1FF;
+  public static final int[] LINES = {0x007, 0x038, 0x1C0,  //rows
+                                     0x049, 0x092, 0x124,  //columns
+                                     0x111, 0x054};        //diagonals
+  public static final int POSITION_NUMBER = 19683;  //3^9
+
+  //TERNARY[mask] is the base 3 number with digit 1 for each move in the mask
+  private static final int[] TERNARY = new int[ALL_MOVES + 1];
+
+  static {
+    for (int mask = 0; mask <= ALL_MOVES; mask++) {
+      int weight = 1;
+      for (int ii = 0; ii < 9; ii++) {
+        if ((mask & (1 << ii)) != 0) {
+          TERNARY[mask] += weight;
+        }
+        weight *= 3;
+      }
+    }
+  }
+
+  private int computerMask;
+  private int personMask;
+  private long history;
+  private int moveCount;
+
+  public GameState() {
+    reset();
+  }
+
+  public GameState(GameState other) {
+    computerMask = other.computerMask;
+    personMask = other.personMask;
+    history = other.history;
+    moveCount = other.moveCount;
+  }
+
+  public void reset() {
+    computerMask = 0;
+    personMask = 0;
+    history = 0L;
+    moveCount = 0;
+  }
+
+  /**
+   * Play the next move, by the computer if the move count is even, otherwise by the person.
+   */
+  public void play(int move) {
+    if (moveCount % 2 == 0) {
+      computerMask |= 1 << (move-1);
+    }
+    else {
+      personMask |= 1 << (move-1);
+    }
+    history |= ((long) move) << (4*moveCount);
+    moveCount++;
+  }
+
+  /**
+   * Get the move with index ii (starting from 0) in the order played.
+   */
+  public int getMove(int ii) {
+    return (int) (history >>> (4*ii)) & 0xF;
+  }
+
+  public int getMoveCount() {
+    return moveCount;
+  }
+
+  /**
+   * All the moves packed with 4 bits per move, the first move in the lowest 4 bits.
+   */
+  public long getHistory() {
+    return history;
+  }
+
+  public int getComputerMask() {
+    return computerMask;
+  }
+
+  public int getPersonMask() {
+    return personMask;
+  }
+
+  public int getOccupiedMoves() {
+    return computerMask | personMask;
+  }
+
+  public int getFreeMoves() {
+    return ~(computerMask | personMask) & ALL_MOVES;
+  }
+
+  public boolean isOccupied(int move) {
+    return ((computerMask | personMask) & (1 << (move-1))) != 0;
+  }
+
+  /**
+   * The base 3 index of the position, the same for all the move orders reaching it.
+   */
+  public int getPositionIndex() {
+    return TERNARY[computerMask] + 2 * TERNARY[personMask];
+  }
+
+  public static int getPositionIndex(int computerMask, int personMask) {
+    return TERNARY[computerMask] + 2 * TERNARY[personMask];
+  }
+
+  /**
+   * Get the computer mask of a position from its index.
+   */
+  public static int getComputerMask(int positionIndex) {
+    int mask = 0;
+    for (int ii = 0; ii < 9; ii++) {
+      if (positionIndex % 3 == 1) {
+        mask |= 1 << ii;
+      }
+      positionIndex /= 3;
+    }
+    return mask;
+  }
+
+  /**
+   * Get the person mask of a position from its index.
+   */
+  public static int getPersonMask(int positionIndex) {
+    int mask = 0;
+    for (int ii = 0; ii < 9; ii++) {
+      if (positionIndex % 3 == 2) {
+        mask |= 1 << ii;
+      }
+      positionIndex /= 3;
+    }
+    return mask;
+  }
+
+  public boolean hasWinner() {
+    return hasLine(computerMask) || hasLine(personMask);
+  }
+
+  public static boolean hasLine(int mask) {
+    for (int ii = 0; ii < LINES.length; ii++) {
+      if ((mask & LINES[ii]) == LINES[ii]) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Get the nth (starting from 1) move in a move mask, counting from move 1.
+   */
+  public static int nthMove(int moves, int nth) {
+    for (int ii = 1; ii < nth; ii++) {
+      moves &= moves - 1;  //drop the lowest move
+    }
+    return Integer.numberOfTrailingZeros(moves) + 1;
+  }
+
+  /**
+   * Pack a string of move digits into a history, 4 bits per move.
+   */
+  public static long packMoves(String moves) {
+    long history = 0L;
+    for (int ii = 0; ii < moves.length(); ii++) {
+      history |= ((long) (moves.charAt(ii) - '0')) << (4*ii);
+    }
+    return history;
+  }
+
+  /**
+   * Unpack the first moveCount moves of a history into a string of move digits.
+   */
+  public static String unpackMoves(long history, int moveCount) {
+    StringBuilder sb = new StringBuilder(moveCount);
+    for (int ii = 0; ii < moveCount; ii++) {
+      sb.append((char) ('0' + ((int) (history >>> (4*ii)) & 0xF)));
+    }
+    return sb.toString();
+  }
+
+  /**
+   * The moves as a string of move digits, the format of the old moveRecord.
+   */
+  public String toString() {
+    return unpackMoves(history, moveCount);
+  }
+}
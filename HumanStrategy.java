@@ -0,0 +1,98 @@
+import java.io.*;
+
+/**
+ * HumanStrategy - Moves entered by a person as "row#,col#", such as "1,2".
+ * <p>
+ * It keeps asking until a good move is entered, with the messages from getInputMessage().  On a
+ * board of any size the move is checked by Board.parseMove().
+ */
+public class HumanStrategy implements MoveStrategy, BoardStrategy {
+  private BufferedReader input;
+  private PrintStream output;
+
+  public HumanStrategy(BufferedReader input, PrintStream output) {
+    this.input = input;
+    this.output = output;
+  }
+
+  /**
+   * @throws IllegalStateException if the input ends before a good move is entered.
+   */
+  public int nextMove(GameState state) {
+    String inputLine = "";
+
+    String msg = "Please enter your move:";
+    try {
+      while(!msg.matches("^\\d$")) {
+        output.print(msg);
+        output.flush();
+        inputLine = input.readLine();
+        if (inputLine == null) {
+          throw new IllegalStateException("End of input");
+        }
+        msg = getInputMessage(inputLine, state);
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("Cannot read the move", e);
+    }
+
+    return Integer.parseInt(msg);
+  }
+
+  /**
+   * @throws IllegalStateException if the input ends before a good move is entered.
+   */
+  public int nextMove(Board board) {
+    int move = 0;
+
+    String msg = "Please enter your move:";
+    try {
+      while (move == 0) {
+        output.print(msg);
+        output.flush();
+        String inputLine = input.readLine();
+        if (inputLine == null) {
+          throw new IllegalStateException("End of input");
+        }
+        move = board.parseMove(inputLine);
+        msg = "Bad move or move already used, please re-enter:";
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("Cannot read the move", e);
+    }
+
+    return move;
+  }
+
+  /**
+   * Check an input line for a move.
+   *
+   * @return the move as one digit if it is good, otherwise the message asking to re-enter.
+   */
+  public static String getInputMessage(String inputLine, GameState state) {
+    String msg = "";
+    int moveX, moveY;
+
+    if (inputLine.matches("^\\s*\\d\\s*,\\s*\\d\\s*$")) {
+      moveX=Integer.parseInt(inputLine.substring(0, inputLine.indexOf(",")).trim());
+      moveY=Integer.parseInt(inputLine.substring(inputLine.indexOf(",") + 1).trim());
+
+      if ( (moveX>=1) && (moveX<=3) && (moveY>=1) && (moveY<=3) ) {
+        if (state.isOccupied((moveX-1)*3+moveY)) {
+          msg = "Move (" + moveX + "," + moveY + ") already used, please re-enter:";
+        }
+        else {
+          msg = String.valueOf((moveX-1)*3+moveY);
+        }
+      }
+      else {
+        msg = "Move (" + moveX + "," + moveY + ") out of range, please re-enter:";
+      }
+    }
+    else {
+      msg = "Bad move format, please re-enter:";
+    }
+
+    return msg;
+  }
+}
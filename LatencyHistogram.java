@@ -0,0 +1,80 @@
+import java.util.concurrent.atomic.*;
+
+/**
+ * LatencyHistogram - A histogram of latencies in nanoseconds, cheap enough to record every move.
+ * <p>
+ * A latency goes to the bucket of its highest bit, so bucket b counts the latencies from 2^b to
+ * 2^(b+1)-1 ns, and recording one is a LongAdder increment with no lock and no allocation.  The
+ * percentiles are the upper bound of their bucket, at most 2 times the exact value, good enough to
+ * see a latency change by an order of magnitude, and never above the max recorded.
+ */
+public class LatencyHistogram {
+  private static final int BUCKET_NUMBER = 64;
+
+  private final LongAdder[] buckets;
+  private final LongAdder totalNanos;
+  private final LongAccumulator maxNanos;
+
+  public LatencyHistogram() {
+    buckets = new LongAdder[BUCKET_NUMBER];
+    for (int ii = 0; ii < BUCKET_NUMBER; ii++) {
+      buckets[ii] = new LongAdder();
+    }
+    totalNanos = new LongAdder();
+    maxNanos = new LongAccumulator(Long::max, 0L);
+  }
+
+  public void record(long nanos) {
+    if (nanos < 0) {
+      nanos = 0;
+    }
+    buckets[63 - Long.numberOfLeadingZeros(nanos | 1)].increment();
+    totalNanos.add(nanos);
+    maxNanos.accumulate(nanos);
+  }
+
+  public long getCount() {
+    long count = 0;
+    for (int ii = 0; ii < BUCKET_NUMBER; ii++) {
+      count += buckets[ii].sum();
+    }
+    return count;
+  }
+
+  public double getMeanNanos() {
+    long count = getCount();
+    return (count == 0) ? 0.0 : (double) totalNanos.sum() / count;
+  }
+
+  public long getMaxNanos() {
+    return maxNanos.get();
+  }
+
+  /**
+   * Get a percentile, as the upper bound of the bucket holding it.
+   *
+   * @param percent from 0 to 100.
+   * @return the latency in ns, 0 if nothing is recorded.
+   */
+  public long getPercentileNanos(double percent) {
+    long[] counts = new long[BUCKET_NUMBER];
+    long count = 0;
+    for (int ii = 0; ii < BUCKET_NUMBER; ii++) {
+      counts[ii] = buckets[ii].sum();
+      count += counts[ii];
+    }
+    if (count == 0) {
+      return 0;
+    }
+
+    long rank = (long) Math.ceil(count * percent / 100.0);
+    long seen = 0;
+    for (int ii = 0; ii < BUCKET_NUMBER; ii++) {
+      seen += counts[ii];
+      if ( (seen >= rank) && (counts[ii] > 0) ) {
+        return Math.min((2L << ii) - 1, getMaxNanos());  //not above the max recorded
+      }
+    }
+    return getMaxNanos();
+  }
+}
@@ -0,0 +1,66 @@
+import java.util.SplittableRandom;
+
+/**
+ * LearningStrategy - Pick a random move, avoiding the moves leading to the historical loses.
+ * <p>
+ * The lose moves come from the LosePatterns learned from the lose records, a LosePositionStore or a
+ * ShardedLoseStore.  If all the free positions lead to a lose, the side has lost already and picks
+ * any free position.  The lose move lookups, one a move, and the lose moves skipped are counted in
+ * an EngineMetrics, added once a game by gameEnded() so a move only increments two local counts.
+ */
+public class LearningStrategy implements MoveStrategy {
+  private LosePatterns losePatterns;
+  private SplittableRandom random;
+  private EngineMetrics metrics;
+  private int lastLoseMoves;
+  private int loseMoveLookups;   //of the game, not yet in metrics
+  private int skippedLoseMoves;
+
+  public LearningStrategy(LosePositionStore losePositionStore, SplittableRandom random) {
+    this(losePositionStore, random, new EngineMetrics());
+  }
+
+  public LearningStrategy(LosePatterns losePatterns, SplittableRandom random, EngineMetrics metrics) {
+    this.losePatterns = losePatterns;
+    this.random = random;
+    this.metrics = metrics;
+    lastLoseMoves = 0;
+  }
+
+  public int nextMove(GameState state) {
+    int freeMoves = state.getFreeMoves();
+    int loseHistoricalMoves = getLoseHistoricalMoves(state); //Get all the next moves leading to existing loses
+    loseMoveLookups++;
+    if ((freeMoves & ~loseHistoricalMoves) == 0) {
+      loseHistoricalMoves = 0;
+    }
+
+    int candidateMoves = freeMoves & ~loseHistoricalMoves;
+    int move = GameState.nthMove(candidateMoves, random.nextInt(Integer.bitCount(candidateMoves)) + 1);
+    //the lose moves before the move picked, each one a "Skip a historical lose move" line on the console
+    lastLoseMoves = loseHistoricalMoves & ((1 << (move-1)) - 1);
+    skippedLoseMoves += Integer.bitCount(lastLoseMoves);
+    return move;
+  }
+
+  public void gameEnded(GameState state, int result) {
+    metrics.loseMovesLooked(loseMoveLookups, skippedLoseMoves);
+    loseMoveLookups = 0;
+    skippedLoseMoves = 0;
+  }
+
+  /**
+   * Get all the next moves leading to existing loses, as a bit mask with bit (move-1) for a move.
+   */
+  public int getLoseHistoricalMoves(GameState state) {
+    return losePatterns.getLoseMoves(state);
+  }
+
+  /**
+   * The lose moves skipped by the last nextMove() before reaching the move it picked, as a bit mask
+   * with bit (move-1) for a move.  None if all the free moves lead to a lose.
+   */
+  public int getLastLoseMoves() {
+    return lastLoseMoves;
+  }
+}
@@ -0,0 +1,152 @@
+import java.util.concurrent.atomic.*;
+
+/**
+ * LongHashSet - A grow-only set of longs, in primitive arrays, for the millions of lose positions
+ * of the large boards.
+ * <p>
+ * A key is kept in an open addressing table of longs with linear probing, so it takes 8 bytes and
+ * some free slots, about 11 to 21 bytes, where a boxed Long in a ConcurrentHashMap takes some 60
+ * bytes.  The key 0 marks a free slot, so it is kept apart in a flag.
+ * <p>
+ * The set can be shared by games played at the same time.  The keys are spread over SEGMENT_NUMBER
+ * segments by the high bits of their hash, each with its own table.  A lookup takes no lock: it reads
+ * the table of the segment and probes it.  An add locks its segment only; when the table of the
+ * segment is 3/4 full, a table twice larger is filled and replaces it, and a lookup still probing the
+ * old table finds all the keys added before.  Keys are never removed.
+ */
+public class LongHashSet {
+  private static final int SEGMENT_BITS = 6;
+  private static final int SEGMENT_NUMBER = 1 << SEGMENT_BITS;
+  private static final int INITIAL_CAPACITY = 16;  //slots of a segment
+
+  private final Segment[] segments;
+  private final AtomicBoolean hasZero;
+
+  public LongHashSet() {
+    segments = new Segment[SEGMENT_NUMBER];
+    for (int ii = 0; ii < SEGMENT_NUMBER; ii++) {
+      segments[ii] = new Segment();
+    }
+    hasZero = new AtomicBoolean(false);
+  }
+
+  /**
+   * @return true if the key is new.
+   */
+  public boolean add(long key) {
+    if (key == 0) {
+      return hasZero.compareAndSet(false, true);
+    }
+    long hash = mix(key);
+    return segments[(int) (hash >>> (64 - SEGMENT_BITS))].add(key, (int) hash);
+  }
+
+  public boolean contains(long key) {
+    if (key == 0) {
+      return hasZero.get();
+    }
+    long hash = mix(key);
+    return segments[(int) (hash >>> (64 - SEGMENT_BITS))].contains(key, (int) hash);
+  }
+
+  public long size() {
+    long size = hasZero.get() ? 1 : 0;
+    for (int ii = 0; ii < SEGMENT_NUMBER; ii++) {
+      size += segments[ii].count;
+    }
+    return size;
+  }
+
+  /**
+   * The bytes taken by the tables of the keys.
+   */
+  public long getMemoryBytes() {
+    long bytes = 0;
+    for (int ii = 0; ii < SEGMENT_NUMBER; ii++) {
+      bytes += 8L * segments[ii].table.length();
+    }
+    return bytes;
+  }
+
+  /**
+   * Spread the bits of a key, the finalizer of MurmurHash3, so the keys differing in a few bits only
+   * still go to different segments and slots.
+   */
+  static long mix(long key) {
+    key ^= key >>> 33;
+    key *= 0xFF51AFD7ED558CCDL;
+    key ^= key >>> 33;
+    key *= 0xC4CEB9FE1A85EC53L;
+    key ^= key >>> 33;
+    return key;
+  }
+
+  /**
+   * The keys of one segment in an open addressing table.
+   */
+  private static class Segment {
+    volatile AtomicLongArray table;
+    volatile int count;  //written under the lock
+
+    Segment() {
+      table = new AtomicLongArray(INITIAL_CAPACITY);
+      count = 0;
+    }
+
+    boolean contains(long key, int hash) {
+      AtomicLongArray slots = table;
+      int mask = slots.length() - 1;
+      for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+        long value = slots.get(slot);
+        if (value == key) {
+          return true;
+        }
+        if (value == 0) {
+          return false;
+        }
+      }
+    }
+
+    synchronized boolean add(long key, int hash) {
+      AtomicLongArray slots = table;
+      int mask = slots.length() - 1;
+      int slot = hash & mask;
+      for (long value = slots.get(slot); value != 0; value = slots.get(slot)) {
+        if (value == key) {
+          return false;
+        }
+        slot = (slot + 1) & mask;
+      }
+
+      if ((count + 1) * 4L > slots.length() * 3L) {
+        slots = grow(slots);
+        table = slots;
+        mask = slots.length() - 1;
+        for (slot = hash & mask; slots.get(slot) != 0; slot = (slot + 1) & mask) {
+        }
+      }
+      slots.set(slot, key);
+      count++;
+      return true;
+    }
+
+    /**
+     * A table twice larger with all the keys of a table.
+     */
+    private static AtomicLongArray grow(AtomicLongArray slots) {
+      AtomicLongArray newSlots = new AtomicLongArray(slots.length() * 2);
+      int mask = newSlots.length() - 1;
+      for (int ii = 0; ii < slots.length(); ii++) {
+        long key = slots.get(ii);
+        if (key != 0) {
+          int slot = (int) mix(key) & mask;
+          while (newSlots.get(slot) != 0) {
+            slot = (slot + 1) & mask;
+          }
+          newSlots.set(slot, key);
+        }
+      }
+      return newSlots;
+    }
+  }
+}
@@ -0,0 +1,22 @@
+/**
+ * LosePatterns - The lose positions the learning games look up and add to.
+ * <p>
+ * They are all in one LosePositionStore, or in the shards of a ShardedLoseStore, loaded only for
+ * the openings played.
+ */
+public interface LosePatterns {
+  /**
+   * Add the position after the first moveCount moves of a packed history as a lose position, and
+   * derive the shorter lose positions it completes.
+   *
+   * @return true if the position is new.
+   */
+  boolean add(long history, int moveCount);
+
+  /**
+   * Get all the next moves of a game leading to a lose position for the side to move.
+   *
+   * @return bit mask of the lose moves, bit (move-1) for a move.
+   */
+  int getLoseMoves(GameState state);
+}
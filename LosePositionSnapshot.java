@@ -0,0 +1,177 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.zip.CRC32;
+
+/**
+ * LosePositionSnapshot - A snapshot of the lose positions derived from a lose records file, so the
+ * game starts without reading and deriving the whole file again.
+ * <p>
+ * It is saved next to the lose records file, as "loserecords.txt.snap", with the length and the
+ * CRC32 of the lose records file it was derived from.  The lose records file only grows by appends,
+ * so while its first bytes still have the same CRC32 the snapshot is good, and only the records
+ * appended after that length are read and added.  If the file is shorter, or its first bytes have
+ * changed, such as rewritten by LoseRecordCompactor or converted to the other format, the snapshot
+ * is stale and the whole file is read again.
+ * <p>
+ * The format is the magic "TTTP", a 2 byte version and 2 reserved bytes, the length of the lose
+ * records file (8 bytes), its CRC32, the number of records it has and the number of words, then the
+ * words of the bit set of LosePositionStore, 8 bytes each, and a CRC32 of all the bytes before it.
+ * It is read through a memory mapping, and written to a temporary file renamed over the old one.
+ */
+public class LosePositionSnapshot {
+  public static final int MAGIC = 0x54545450;  //"TTTP"
+  public static final short VERSION = 1;
+  public static final int HEADER_SIZE = 28;
+
+  private final LosePositionStore store;
+  private final long sourceLength;
+  private final int recordCount;
+
+  private LosePositionSnapshot(LosePositionStore store, long sourceLength, int recordCount) {
+    this.store = store;
+    this.sourceLength = sourceLength;
+    this.recordCount = recordCount;
+  }
+
+  public static String getFileName(String recordsFileName) {
+    return recordsFileName + ".snap";
+  }
+
+  /**
+   * The lose positions of the snapshot, a new store the game can go on adding to.
+   */
+  public LosePositionStore getStore() {
+    return store;
+  }
+
+  /**
+   * The length of the lose records file the snapshot was derived from, where the records appended
+   * after it start.
+   */
+  public long getSourceLength() {
+    return sourceLength;
+  }
+
+  public int getRecordCount() {
+    return recordCount;
+  }
+
+  /**
+   * Load the snapshot of a lose records file if it is still good for the file.
+   *
+   * @return the snapshot, or null if there is none, it is broken, or it is stale.
+   */
+  public static LosePositionSnapshot load(String recordsFileName) throws IOException {
+    Path file = Paths.get(getFileName(recordsFileName));
+    Path source = Paths.get(recordsFileName);
+    if (!Files.exists(file) || !Files.exists(source)) {
+      return null;
+    }
+
+    long sourceLength;
+    int sourceCrc;
+    int recordCount;
+    long[] words;
+    FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+    try {
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      if ( (buffer.remaining() < HEADER_SIZE + 4) || (buffer.getInt() != MAGIC) || (buffer.getShort() != VERSION) ) {
+        return null;
+      }
+      buffer.getShort();
+      sourceLength = buffer.getLong();
+      sourceCrc = buffer.getInt();
+      recordCount = buffer.getInt();
+      int wordCount = buffer.getInt();
+      if ( (wordCount < 0) || (buffer.remaining() != (long) wordCount * 8 + 4) ) {
+        return null;
+      }
+      CRC32 crc = new CRC32();
+      crc.update(buffer.duplicate().position(0).limit(HEADER_SIZE + wordCount * 8));
+      words = new long[wordCount];
+      buffer.asLongBuffer().get(words);
+      buffer.position(HEADER_SIZE + wordCount * 8);
+      if (buffer.getInt() != (int) crc.getValue()) {
+        return null;
+      }
+    } finally {
+      channel.close();
+    }
+
+    if ( (Files.size(source) < sourceLength) || (checksum(source, sourceLength) != sourceCrc) ) {
+      return null;
+    }
+    try {
+      return new LosePositionSnapshot(LosePositionStore.fromWords(words), sourceLength, recordCount);
+    } catch (IllegalArgumentException e) {
+      return null;  //a store of another size
+    }
+  }
+
+  /**
+   * Save the snapshot of a lose records file, with the lose positions derived from all of it.  The
+   * file must not be written while it is saved.  Nothing is saved if the file does not exist.
+   *
+   * @param recordCount the number of records of the file.
+   */
+  public static void save(String recordsFileName, LosePositionStore store, int recordCount) throws IOException {
+    Path source = Paths.get(recordsFileName);
+    if (!Files.exists(source)) {
+      return;
+    }
+    long sourceLength = Files.size(source);
+    int sourceCrc = checksum(source, sourceLength);
+    long[] words = store.getWords();
+
+    ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + words.length * 8 + 4);
+    buffer.putInt(MAGIC);
+    buffer.putShort(VERSION);
+    buffer.putShort((short) 0);
+    buffer.putLong(sourceLength);
+    buffer.putInt(sourceCrc);
+    buffer.putInt(recordCount);
+    buffer.putInt(words.length);
+    for (int ii = 0; ii < words.length; ii++) {
+      buffer.putLong(words[ii]);
+    }
+    CRC32 crc = new CRC32();
+    crc.update(buffer.array(), 0, buffer.position());
+    buffer.putInt((int) crc.getValue());
+
+    Path file = Paths.get(getFileName(recordsFileName)).toAbsolutePath();
+    Path tempFile = Files.createTempFile(file.getParent(), file.getFileName() + ".", ".tmp");
+    try {
+      try {
+        //the temporary file is only readable by its owner, the snapshot is readable as the records
+        Files.setPosixFilePermissions(tempFile, Files.getPosixFilePermissions(source));
+      } catch (UnsupportedOperationException e) {
+        //not a POSIX file system, the snapshot keeps the default permissions
+      }
+      Files.write(tempFile, buffer.array());
+      Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(tempFile);
+    }
+  }
+
+  /**
+   * The CRC32 of the first length bytes of a file, read through memory mappings.
+   */
+  static int checksum(Path file, long length) throws IOException {
+    CRC32 crc = new CRC32();
+    FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+    try {
+      for (long position = 0; position < length; ) {
+        long size = Math.min(length - position, 1L << 30);
+        crc.update(channel.map(FileChannel.MapMode.READ_ONLY, position, size));
+        position += size;
+      }
+    } finally {
+      channel.close();
+    }
+    return (int) crc.getValue();
+  }
+}
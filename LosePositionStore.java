@@ -0,0 +1,249 @@
+import java.util.concurrent.atomic.*;
+
+/**
+ * LosePositionStore - The lose positions learned from the lose records.
+ * <p>
+ * A lose record with the last (winning) move removed is a lose pattern: the side who moved last
+ * will lose again if it repeats the pattern.  What matters is the position the pattern reaches, not
+ * the order of its moves, so the store keeps one bit per position, indexed by the canonical base 3
+ * index of the position (see GameState and BoardSymmetry).  A lose learned by one move order is
+ * avoided by all the other move orders reaching the same position, and by all its rotations and
+ * reflections.
+ * <p>
+ * Finding the lose moves of a game is one bit test for each free position, so it costs the same
+ * however many loses are learned, and nothing is allocated.  For the first moves, the most common
+ * positions, it is one read of an OpeningBook built from the store.
+ * <p>
+ * Shorter lose patterns are derived when a lose position is added, see add().
+ * <p>
+ * A position where the computer moved last is a computer lose, and one where the person moved last
+ * is a person lose, so the two sides never mix up and one store can learn for both sides.
+ * <p>
+ * The store can be shared by games played at the same time without any lock.  A position is marked
+ * with a compare-and-set on its 64 bit word, so a lookup never waits for the games adding loses, and
+ * a lose added by one game is seen by the lookups of all the games as soon as it is marked.
+ */
+public class LosePositionStore implements LosePatterns {
+  private final AtomicLongArray losePositions;
+  private final AtomicInteger positionCount;
+  private final AtomicInteger openingVersion;  //changed by each lose position of the opening book
+  private volatile OpeningBook openingBook;
+
+  public LosePositionStore() {
+    losePositions = new AtomicLongArray((GameState.POSITION_NUMBER + 63) / 64);
+    positionCount = new AtomicInteger(0);
+    openingVersion = new AtomicInteger(0);
+  }
+
+  /**
+   * Add the position after the first moveCount moves of a packed history as a lose position, and
+   * derive the shorter lose positions it completes.
+   * <p>
+   * If all the moves of a side from a position are lose positions, the side will definitely lose
+   * once the other side reaches that position.  So every position from which the other side can
+   * reach it with one move is a lose position too: from 3 different 7-step lose patterns with the
+   * same first 6 steps, we get a 5-step lose pattern.  The new lose positions are checked the same
+   * way, so the loses cascade down to shorter patterns.  Only the positions one move before the
+   * added position are checked, so adding costs the same however many loses are learned.
+   *
+   * @return true if the position is new, false if it or a symmetric position is already a lose.
+   */
+  public boolean add(long history, int moveCount) {
+    int computerMask = 0;
+    int personMask = 0;
+    for (int ii = 0; ii < moveCount; ii++) {
+      int moveBit = 1 << (((int) (history >>> (4*ii)) & 0xF) - 1);
+      if (ii % 2 == 0) {
+        computerMask |= moveBit;
+      }
+      else {
+        personMask |= moveBit;
+      }
+    }
+
+    return add(computerMask, personMask);
+  }
+
+  /**
+   * Add a position as a lose position for the side who moved last, and derive the shorter lose
+   * positions it completes.
+   *
+   * @return true if the position is new, false if it or a symmetric position is already a lose.
+   */
+  public boolean add(int computerMask, int personMask) {
+    if (!mark(computerMask, personMask)) {
+      return false;
+    }
+    derive(computerMask, personMask);
+    return true;
+  }
+
+  /**
+   * Check if a position is a lose for the side who moved last.
+   */
+  public boolean isLose(int computerMask, int personMask) {
+    return isLose(GameState.getPositionIndex(computerMask, personMask));
+  }
+
+  private boolean isLose(int positionIndex) {
+    int index = BoardSymmetry.getCanonicalPosition(positionIndex);
+    return (losePositions.get(index >>> 6) & (1L << index)) != 0;
+  }
+
+  /**
+   * Get all the next moves of a game leading to a lose position for the side to move.
+   *
+   * @return bit mask of the lose moves, bit (move-1) for a move.
+   */
+  public int getLoseMoves(GameState state) {
+    int positionIndex = state.getPositionIndex();
+    if (state.getMoveCount() <= OpeningBook.DEPTH) {
+      return getOpeningBook().getLoseMoves(positionIndex);
+    }
+
+    int digit = (state.getMoveCount() % 2 == 0) ? 1 : 2;  //computer or person to move
+    int loseMoves = 0;
+    for (int moves = state.getFreeMoves(); moves != 0; moves &= moves - 1) {
+      int moveBit = moves & -moves;
+      if (isLose(positionIndex + digit * GameState.getPositionIndex(moveBit, 0))) {
+        loseMoves |= moveBit;
+      }
+    }
+    return loseMoves;
+  }
+
+  /**
+   * Get the opening book of the lose positions, built again if a lose position it covers has been
+   * added since.  A book built while a lose position is added has the version before it, so it is
+   * built again at the next lookup.
+   */
+  public OpeningBook getOpeningBook() {
+    OpeningBook book = openingBook;
+    int version = openingVersion.get();
+    if ( (book == null) || (book.getVersion() != version) ) {
+      book = new OpeningBook(this, version);
+      openingBook = book;
+    }
+    return book;
+  }
+
+  private boolean mark(int computerMask, int personMask) {
+    int index = BoardSymmetry.getCanonicalPosition(GameState.getPositionIndex(computerMask, personMask));
+    long bit = 1L << index;
+    long word;
+    do {
+      word = losePositions.get(index >>> 6);
+      if ((word & bit) != 0) {
+        return false;
+      }
+    } while (!losePositions.compareAndSet(index >>> 6, word, word | bit));
+
+    positionCount.incrementAndGet();
+    if (Integer.bitCount(computerMask | personMask) <= OpeningBook.DEPTH + 1) {
+      openingVersion.incrementAndGet();  //a lose move of the opening book
+    }
+    return true;
+  }
+
+  /**
+   * Derive the lose positions completed by a new lose position.  For each move of the side who moved
+   * last, take the position before that move; if all the moves of the side from there are lose
+   * positions, every position one move of the other side before it is a lose position.
+   */
+  private void derive(int computerMask, int personMask) {
+    boolean computerMovedLast = Integer.bitCount(computerMask) > Integer.bitCount(personMask);
+    int moverMask = computerMovedLast ? computerMask : personMask;
+    int otherMask = computerMovedLast ? personMask : computerMask;
+    if (GameState.hasLine(moverMask) || GameState.hasLine(otherMask)) {
+      return;  //the game has ended already
+    }
+
+    for (int moverMoves = moverMask; moverMoves != 0; moverMoves &= moverMoves - 1) {
+      int beforeMoverMask = moverMask & ~(moverMoves & -moverMoves);
+      if ( (beforeMoverMask == 0) || !isAllLose(beforeMoverMask, otherMask, computerMovedLast) ) {
+        continue;
+      }
+
+      for (int otherMoves = otherMask; otherMoves != 0; otherMoves &= otherMoves - 1) {
+        int beforeOtherMask = otherMask & ~(otherMoves & -otherMoves);
+        boolean added = computerMovedLast ? mark(beforeMoverMask, beforeOtherMask) :
+                                            mark(beforeOtherMask, beforeMoverMask);
+        if (added) {
+          if (computerMovedLast) {
+            derive(beforeMoverMask, beforeOtherMask);
+          }
+          else {
+            derive(beforeOtherMask, beforeMoverMask);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Check if all the moves of a side from a position lead to a lose position.
+   */
+  private boolean isAllLose(int moverMask, int otherMask, boolean computerToMove) {
+    int freeMoves = ~(moverMask | otherMask) & GameState.ALL_MOVES;
+    for (int moves = freeMoves; moves != 0; moves &= moves - 1) {
+      int moveBit = moves & -moves;
+      boolean lose = computerToMove ? isLose(moverMask | moveBit, otherMask) :
+                                      isLose(otherMask, moverMask | moveBit);
+      if (!lose) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Get the canonical index of all the lose positions.
+   */
+  public int[] getLosePositions() {
+    int[] positions = new int[size()];
+    int count = 0;
+    for (int index = 0; (index < GameState.POSITION_NUMBER) && (count < positions.length); index++) {
+      if ((losePositions.get(index >>> 6) & (1L << index)) != 0) {
+        positions[count] = index;
+        count++;
+      }
+    }
+    return java.util.Arrays.copyOf(positions, count);
+  }
+
+  public int size() {
+    return positionCount.get();
+  }
+
+  /**
+   * Get the words of the bit set, bit (index % 64) of word (index / 64) for the position index, to
+   * save a snapshot (see LosePositionSnapshot).
+   */
+  public long[] getWords() {
+    long[] words = new long[losePositions.length()];
+    for (int ii = 0; ii < words.length; ii++) {
+      words[ii] = losePositions.get(ii);
+    }
+    return words;
+  }
+
+  /**
+   * Create a store from the words of a snapshot, with all the lose positions derived already, so
+   * nothing is derived again.
+   *
+   * @throws IllegalArgumentException if the number of words is not the one of a store.
+   */
+  public static LosePositionStore fromWords(long[] words) {
+    LosePositionStore store = new LosePositionStore();
+    if (words.length != store.losePositions.length()) {
+      throw new IllegalArgumentException("Bad number of words: " + words.length);
+    }
+    int count = 0;
+    for (int ii = 0; ii < words.length; ii++) {
+      store.losePositions.set(ii, words[ii]);
+      count += Long.bitCount(words[ii]);
+    }
+    store.positionCount.set(count);
+    return store;
+  }
+}
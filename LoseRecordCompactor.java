@@ -0,0 +1,168 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.Arrays;
+
+/**
+ * LoseRecordCompactor - Rewrite a lose records file with the fewest records teaching the same loses.
+ * <p>
+ * The lose records file only grows, while most of its records teach nothing new: the same game in
+ * another rotation or move order, or a lose position the derivation of LosePositionStore finds from
+ * the longer loses anyway.  The compactor streams the file once into a LosePositionStore, so the
+ * memory is the same for any file size, and keeps one record for each lose position which can not
+ * be derived from the longer ones.  Loading the compacted file learns exactly the same lose positions
+ * as the whole file.
+ * <p>
+ * The positions are taken from the longest to the shortest into a new store.  A position already
+ * known there is derived from the longer ones and is dropped, any other one is added and written.
+ * Derivation only goes from longer to shorter positions, so no record written can be dropped, and the
+ * file is the smallest one teaching the same loses.
+ * <p>
+ * A record written is the moves of the lose position, the computer and the person in turn, and one
+ * more move at the first free position to stand for the winning move dropped by getLosePatterns().
+ * The new file is written in the same format to a temporary file and renamed over the old one, so a
+ * crash leaves either the old or the new file.  The old file is kept with BACKUP_SUFFIX, since the
+ * records written are not the games played any more.
+ * <p>
+ * It runs offline with:<br>
+ * java LoseRecordCompactor loserecords.txt [output file]<br>
+ * and online when TicTacToe starts with "--compact" and a file at least COMPACT_RATIO times larger
+ * than needed.
+ */
+public class LoseRecordCompactor {
+  public static final int COMPACT_RATIO = 2;
+  public static final String BACKUP_SUFFIX = ".bak";
+
+  public static void main(String[] args) {
+    if ( (args.length < 1) || (args.length > 2) ) {
+      System.out.println("Usage: java LoseRecordCompactor <lose records file> [output file]");
+      return;
+    }
+
+    try {
+      String outputFileName = (args.length == 2) ? args[1] : args[0];
+      long[] recordCount = new long[1];
+      LosePositionStore store = learn(args[0], recordCount);
+      long[] records = getMinimalRecords(store);
+      write(outputFileName, records, LoseRecordFile.isBinary(args[0]));
+      System.out.println(recordCount[0] + " lose records compacted to " + records.length + " in " +
+                         outputFileName + ", lose positions: " + store.size());
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Learn all the lose positions of a lose records file, streaming it in one pass.  The broken
+   * records are skipped.
+   *
+   * @param recordCount recordCount[0] is set to the number of records read.
+   */
+  public static LosePositionStore learn(String fileName, final long[] recordCount) throws IOException {
+    final LosePositionStore store = new LosePositionStore();
+    recordCount[0] = 0;
+    LoseRecordFile.stream(fileName, record -> {
+      recordCount[0]++;
+      if (LoseRecordFile.isValidRecord(record)) {
+        store.add(record, LoseRecordFile.getMoveCount(record) - 1);
+      }
+    });
+    return store;
+  }
+
+  /**
+   * Get the fewest lose records teaching all the lose positions of a store, in the canonical form
+   * and sorted.
+   */
+  public static long[] getMinimalRecords(LosePositionStore store) {
+    int[] positions = store.getLosePositions();
+
+    //longest first: sorted by the free positions, then by the position index
+    long[] byLength = new long[positions.length];
+    for (int ii = 0; ii < positions.length; ii++) {
+      int stones = Integer.bitCount(GameState.getComputerMask(positions[ii]) | GameState.getPersonMask(positions[ii]));
+      byLength[ii] = ((long) (TicTacToe.MAX_MOVE_NUMBER - stones) << 32) | positions[ii];
+    }
+    Arrays.sort(byLength);
+
+    LosePositionStore minimal = new LosePositionStore();
+    long[] records = new long[positions.length];
+    int recordCount = 0;
+    for (int ii = 0; ii < byLength.length; ii++) {
+      int positionIndex = (int) byLength[ii];
+      int computerMask = GameState.getComputerMask(positionIndex);
+      int personMask = GameState.getPersonMask(positionIndex);
+      if (minimal.add(computerMask, personMask)) {
+        records[recordCount] = getRecord(computerMask, personMask);
+        recordCount++;
+      }
+    }
+
+    records = Arrays.copyOf(records, recordCount);
+    Arrays.sort(records);
+    return records;
+  }
+
+  /**
+   * A lose record reaching a position: the moves of the computer and the person in turn, and the
+   * first free position as the last move.
+   */
+  private static long getRecord(int computerMask, int personMask) {
+    long record = 0L;
+    int moveCount = 0;
+    int computerMoves = computerMask;
+    int personMoves = personMask;
+    while ((computerMoves | personMoves) != 0) {
+      int moves = (moveCount % 2 == 0) ? computerMoves : personMoves;
+      int move = Integer.numberOfTrailingZeros(moves) + 1;
+      record |= ((long) move) << (4*moveCount);
+      moveCount++;
+      if (moveCount % 2 == 1) {
+        computerMoves &= computerMoves - 1;
+      }
+      else {
+        personMoves &= personMoves - 1;
+      }
+    }
+
+    int freeMoves = ~(computerMask | personMask) & GameState.ALL_MOVES;
+    record |= ((long) (Integer.numberOfTrailingZeros(freeMoves) + 1)) << (4*moveCount);
+    return BoardSymmetry.canonical(record, moveCount + 1);
+  }
+
+  /**
+   * Write a lose records file through a temporary file in the same directory renamed over it.  An
+   * existing file is copied to BACKUP_SUFFIX first, replacing the backup of the last time.
+   */
+  public static void write(String fileName, long[] records, boolean binary) throws IOException {
+    Path file = Paths.get(fileName).toAbsolutePath();
+    Path tempFile = Files.createTempFile(file.getParent(), file.getFileName() + ".", ".tmp");
+    try {
+      if (Files.exists(file)) {
+        try {
+          Files.setPosixFilePermissions(tempFile, Files.getPosixFilePermissions(file));
+        } catch (UnsupportedOperationException e) {
+          //not a POSIX file system, the new file keeps the default permissions
+        }
+      }
+      if (binary) {
+        LoseRecordFile.writeBinary(tempFile.toString(), records);
+      }
+      else {
+        LoseRecordFile.writeText(tempFile.toString(), records);
+      }
+      FileOutputStream sync = new FileOutputStream(tempFile.toString(), true);
+      try {
+        sync.getFD().sync();
+      } finally {
+        sync.close();
+      }
+      if (Files.exists(file)) {
+        Files.copy(file, Paths.get(file + BACKUP_SUFFIX), StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.COPY_ATTRIBUTES);
+      }
+      Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(tempFile);
+    }
+  }
+}
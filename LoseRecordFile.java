@@ -0,0 +1,330 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * LoseRecordFile - Read and write the lose records file, in the text or the binary format.
+ * <p>
+ * The text format is the original one, one game per line with the moves as "(row#,col#)" joined by
+ * "-", for example "(2,1)-(2,2)-(1,1)-(3,1)-(3,2)-(1,3)".
+ * <p>
+ * The binary format stores a game as one long, the moves packed 4 bits each the same way as the
+ * history of GameState, the first move in the lowest 4 bits.  A move is never 0, so the number of
+ * moves is the number of non-zero 4 bits.  The file starts with an 8 byte header: the magic "TTTL",
+ * a 2 byte version and 2 reserved bytes.  The rest of the file is the records, so a record is
+ * appended by writing 8 bytes at the end, and the whole file is read through a memory mapping in
+ * one pass without any parsing.
+ * <p>
+ * It can be run to convert a file between the two formats:<br>
+ * java LoseRecordFile --to-binary loserecords.txt loserecords.bin<br>
+ * java LoseRecordFile --to-text loserecords.bin loserecords.txt
+ */
+public class LoseRecordFile {
+  public static final int MAGIC = 0x5454544C;  //"TTTL"
+  public static final short VERSION = 1;
+  public static final int HEADER_SIZE = 8;
+  public static final int RECORD_SIZE = 8;
+
+  public static void main(String[] args) {
+    if ( (args.length != 3) ||
+         (!args[0].equals("--to-binary") && !args[0].equals("--to-text")) ) {
+      System.out.println("Usage: java LoseRecordFile --to-binary|--to-text <input file> <output file>");
+      return;
+    }
+
+    try {
+      long[] records = read(args[1]);
+      if (args[0].equals("--to-binary")) {
+        writeBinary(args[2], records);
+      }
+      else {
+        writeText(args[2], records);
+      }
+      System.out.println(records.length + " lose records written to " + args[2]);
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Check if a lose records file is in the binary format.  A file not existing yet is binary if its
+   * name ends with ".bin".
+   */
+  public static boolean isBinary(String fileName) throws IOException {
+    File file = new File(fileName);
+    if (!file.exists()) {
+      return fileName.endsWith(".bin");
+    }
+    if (file.length() < HEADER_SIZE) {
+      return false;
+    }
+
+    DataInputStream in = new DataInputStream(new FileInputStream(file));
+    try {
+      return in.readInt() == MAGIC;
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Read all the records of a lose records file in either format.
+   *
+   * @throws FileNotFoundException if the file does not exist.
+   */
+  public static long[] read(String fileName) throws IOException {
+    if (!new File(fileName).exists()) {
+      throw new FileNotFoundException(fileName);
+    }
+    if (isBinary(fileName)) {
+      return readBinary(fileName);
+    }
+    return readText(fileName);
+  }
+
+  public static long[] readBinary(String fileName) throws IOException {
+    RecordList records = new RecordList();
+    readBinary(fileName, 0, records);
+    return records.toArray();
+  }
+
+  public static long[] readText(String fileName) throws IOException {
+    RecordList records = new RecordList();
+    readText(fileName, 0, records);
+    return records.toArray();
+  }
+
+  /**
+   * Stream all the records of a lose records file in either format to a consumer, one by one in the
+   * order of the file, without keeping them.
+   *
+   * @throws FileNotFoundException if the file does not exist.
+   */
+  public static void stream(String fileName, LongConsumer consumer) throws IOException {
+    stream(fileName, 0, consumer);
+  }
+
+  /**
+   * Stream the records of a lose records file from a byte offset, such as the end of the file when
+   * it was read last time, to read only the records appended since.  The offset must be at the start
+   * of a record, after the header for a binary file.
+   *
+   * @throws FileNotFoundException if the file does not exist.
+   */
+  public static void stream(String fileName, long offset, LongConsumer consumer) throws IOException {
+    if (!new File(fileName).exists()) {
+      throw new FileNotFoundException(fileName);
+    }
+    if (isBinary(fileName)) {
+      readBinary(fileName, offset, consumer);
+    }
+    else {
+      readText(fileName, offset, consumer);
+    }
+  }
+
+  private static void readBinary(String fileName, long offset, LongConsumer consumer) throws IOException {
+    FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+    try {
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      if (buffer.getInt() != MAGIC) {
+        throw new IOException(fileName + " is not a binary lose records file");
+      }
+      short version = buffer.getShort();
+      if (version != VERSION) {
+        throw new IOException(fileName + " has unsupported version " + version);
+      }
+      buffer.position((int) Math.max(HEADER_SIZE, Math.min(offset, buffer.limit())));
+
+      while (buffer.remaining() >= RECORD_SIZE) {
+        consumer.accept(buffer.getLong());
+      }
+    } finally {
+      channel.close();
+    }
+  }
+
+  /**
+   * Read a text file in one pass.  The digits of a line are taken in pairs as row# and col#, any
+   * other character is skipped, and a line without a move is skipped.
+   */
+  private static void readText(String fileName, long offset, LongConsumer consumer) throws IOException {
+    FileInputStream file = new FileInputStream(fileName);
+    InputStream in = new BufferedInputStream(file, 65536);
+    try {
+      file.getChannel().position(offset);
+      long record = 0L;
+      int moveCount = 0;
+      int moveX = 0;
+      boolean hasX = false;
+
+      int ch = in.read();
+      while (true) {
+        if (ch >= '0' && ch <= '9') {
+          if (!hasX) {
+            moveX = ch - '0';
+            hasX = true;
+          }
+          else {
+            record |= ((long) ((moveX-1)*3 + (ch - '0'))) << (4*moveCount);
+            moveCount++;
+            hasX = false;
+          }
+        }
+        else if (ch == '\n' || ch < 0) {
+          if (moveCount > 0) {
+            consumer.accept(record);
+          }
+          record = 0L;
+          moveCount = 0;
+          hasX = false;
+          if (ch < 0) {
+            break;
+          }
+        }
+        ch = in.read();
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * The records streamed from a file, kept in a growing array.
+   */
+  private static class RecordList implements LongConsumer {
+    private long[] records = new long[1024];
+    private int recordCount = 0;
+
+    public void accept(long record) {
+      if (recordCount == records.length) {
+        records = Arrays.copyOf(records, recordCount*2);
+      }
+      records[recordCount] = record;
+      recordCount++;
+    }
+
+    long[] toArray() {
+      return Arrays.copyOf(records, recordCount);
+    }
+  }
+
+  public static void writeBinary(String fileName, long[] records) throws IOException {
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName)));
+    try {
+      writeHeader(out);
+      for (int ii = 0; ii < records.length; ii++) {
+        out.writeLong(records[ii]);
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  public static void writeText(String fileName, long[] records) throws IOException {
+    BufferedWriter bw = new BufferedWriter(new FileWriter(fileName));
+    try {
+      for (int ii = 0; ii < records.length; ii++) {
+        bw.write(formatRecord(records[ii]) + "\n");
+      }
+    } finally {
+      bw.close();
+    }
+  }
+
+  /**
+   * Append one record at the end of a lose records file, in the format of the file.
+   */
+  public static void append(String fileName, long record) throws IOException {
+    append(fileName, new long[] {record}, 1, false);
+  }
+
+  /**
+   * Append the first count records at the end of a lose records file with one write, in the format
+   * of the file.  With sync, the file is forced to the disk before it returns.
+   */
+  public static void append(String fileName, long[] records, int count, boolean sync) throws IOException {
+    boolean binary = isBinary(fileName);
+    boolean newFile = !new File(fileName).exists();
+    FileOutputStream file = new FileOutputStream(fileName, true);  //append
+    try {
+      BufferedOutputStream buffered = new BufferedOutputStream(file);
+      if (binary) {
+        DataOutputStream out = new DataOutputStream(buffered);
+        if (newFile) {
+          writeHeader(out);
+        }
+        for (int ii = 0; ii < count; ii++) {
+          out.writeLong(records[ii]);
+        }
+        out.flush();
+      }
+      else {
+        BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(buffered, "US-ASCII"));
+        for (int ii = 0; ii < count; ii++) {
+          bw.write(formatRecord(records[ii]) + "\n");
+        }
+        bw.flush();
+      }
+      if (sync) {
+        file.getFD().sync();
+      }
+    } finally {
+      file.close();
+    }
+  }
+
+  private static void writeHeader(DataOutputStream out) throws IOException {
+    out.writeInt(MAGIC);
+    out.writeShort(VERSION);
+    out.writeShort(0);
+  }
+
+  /**
+   * Number of moves in a packed record.
+   */
+  public static int getMoveCount(long record) {
+    int moveCount = 0;
+    while ( (moveCount < 16) && (((record >>> (4*moveCount)) & 0xF) != 0) ) {
+      moveCount++;
+    }
+    return moveCount;
+  }
+
+  /**
+   * Check that a packed record is a possible game: every move is 1 to 9 and no position is taken twice.
+   */
+  public static boolean isValidRecord(long record) {
+    int occupied = 0;
+    int moveCount = getMoveCount(record);
+    if ( (moveCount == 0) || (moveCount > 9) ) {
+      return false;
+    }
+    for (int ii = 0; ii < moveCount; ii++) {
+      int move = (int) (record >>> (4*ii)) & 0xF;
+      if ( (move > 9) || ((occupied & (1 << (move-1))) != 0) ) {
+        return false;
+      }
+      occupied |= 1 << (move-1);
+    }
+    return true;
+  }
+
+  /**
+   * Format a packed record as a line of the text format, without the line end.
+   */
+  public static String formatRecord(long record) {
+    StringBuilder sb = new StringBuilder(48);
+    for (int ii = 0; (ii < 16) && (((record >>> (4*ii)) & 0xF) != 0); ii++) {
+      int move = (int) (record >>> (4*ii)) & 0xF;
+      if (ii != 0) {
+        sb.append('-');
+      }
+      sb.append('(').append((move - 1) / 3 + 1).append(',').append((move - 1) % 3 + 1).append(')');
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,326 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+
+/**
+ * LoseRecordLog - Save the lose records in the background, through a write-ahead log.
+ * <p>
+ * A game adds its lose record to a bounded queue and goes on right away.  One writer thread takes
+ * all the records waiting in the queue and writes them as one batch to the log, so many games
+ * losing at the same time cost one write.  The log is the lose records file name with ".wal" added.
+ * It starts with an 8 byte header, the magic "TTTW", a 2 byte version and 2 reserved bytes, and
+ * each record is 12 bytes: the packed record and the CRC32 of its 8 bytes.
+ * <p>
+ * The fsync policy decides when the log is forced to the disk: after each batch (FSYNC_ALWAYS), at
+ * most once per second (FSYNC_INTERVAL, the default) or never, leaving it to the system
+ * (FSYNC_NEVER).
+ * <p>
+ * The log is compacted into the lose records file when it has COMPACT_RECORDS records, once a
+ * minute, and when it is closed: its records are appended to the file in the format of the file,
+ * the file is forced to the disk (unless FSYNC_NEVER), and then the log is emptied.
+ * <p>
+ * recover() is called when the game starts, before the lose records file is read.  It keeps the
+ * records of the log up to the first one torn or with a bad checksum, a write cut by a crash, and
+ * compacts them into the lose records file.  If a crash comes after a compaction wrote the file but
+ * before the log was emptied, the records are appended twice, which loadLoseRecords() removes as
+ * duplicates.
+ */
+public class LoseRecordLog {
+  public static final int MAGIC = 0x54545457;  //"TTTW"
+  public static final short VERSION = 1;
+  public static final int HEADER_SIZE = 8;
+  public static final int ENTRY_SIZE = 12;
+
+  public static final int FSYNC_ALWAYS = 0;
+  public static final int FSYNC_INTERVAL = 1;
+  public static final int FSYNC_NEVER = 2;
+
+  private static final int QUEUE_SIZE = 4096;
+  private static final int COMPACT_RECORDS = 1024;
+  private static final long FSYNC_INTERVAL_MILLIS = 1000;
+  private static final long COMPACT_INTERVAL_MILLIS = 60000;
+  private static final long STOP = 0L;  //never a record, tells the writer to stop
+
+  private String loseRecordsFileName;
+  private volatile int fsyncPolicy;
+  private BlockingQueue<Long> queue;
+  private FileChannel log;
+  private int logRecordCount;
+  private Thread writer;
+  private volatile IOException failure;
+  private volatile boolean closed;
+
+  /**
+   * Open the log of a lose records file, and start the writer thread.  recover() should be called
+   * first, so the log is empty.
+   */
+  public LoseRecordLog(String loseRecordsFileName, int fsyncPolicy) throws IOException {
+    this.loseRecordsFileName = loseRecordsFileName;
+    this.fsyncPolicy = fsyncPolicy;
+    queue = new ArrayBlockingQueue<Long>(QUEUE_SIZE);
+    log = FileChannel.open(Paths.get(getLogFileName(loseRecordsFileName)),
+                           StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    logRecordCount = (int) Math.max(0, (log.size() - HEADER_SIZE) / ENTRY_SIZE);
+    if (log.size() < HEADER_SIZE) {
+      writeHeader();
+    }
+    log.position(HEADER_SIZE + (long) logRecordCount * ENTRY_SIZE);
+    closed = false;
+
+    writer = new Thread(this::writeRecords, "LoseRecordLog");
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  public void setFsyncPolicy(int fsyncPolicy) {
+    this.fsyncPolicy = fsyncPolicy;
+  }
+
+  public static String getLogFileName(String loseRecordsFileName) {
+    return loseRecordsFileName + ".wal";
+  }
+
+  /**
+   * Parse an fsync policy: "always", "interval" or "never".
+   */
+  public static int parseFsyncPolicy(String policy) {
+    if (policy.equals("always")) {
+      return FSYNC_ALWAYS;
+    }
+    else if (policy.equals("interval")) {
+      return FSYNC_INTERVAL;
+    }
+    else if (policy.equals("never")) {
+      return FSYNC_NEVER;
+    }
+    throw new IllegalArgumentException("Unknown fsync policy: " + policy);
+  }
+
+  /**
+   * Queue a lose record to be saved.  It waits only if the queue is full.
+   *
+   * @throws IllegalStateException if the log is closed or the writer has failed.
+   */
+  public void add(long record) {
+    checkFailure();
+    if (closed) {
+      throw new IllegalStateException("Lose records log closed");
+    }
+    try {
+      queue.put(record);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted saving a lose record", e);
+    }
+  }
+
+  /**
+   * Save all the records queued, compact the log into the lose records file and stop the writer.
+   *
+   * @throws IllegalStateException if the writer has failed.
+   */
+  public synchronized void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+
+    try {
+      while (writer.isAlive() && !queue.offer(STOP, FSYNC_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)) {
+        //wait for the writer to make room in the queue
+      }
+      writer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    try {
+      log.close();
+    } catch (IOException e) {
+      if (failure == null) {
+        failure = e;
+      }
+    }
+    checkFailure();
+  }
+
+  private void checkFailure() {
+    if (failure != null) {
+      throw new IllegalStateException("Cannot save the lose records to " + loseRecordsFileName, failure);
+    }
+  }
+
+  /**
+   * The writer thread: write the records in batches until STOP, then compact the log.
+   */
+  private void writeRecords() {
+    long[] batch = new long[QUEUE_SIZE];
+    List<Long> drained = new ArrayList<Long>(QUEUE_SIZE);
+    ByteBuffer buffer = ByteBuffer.allocate(QUEUE_SIZE * ENTRY_SIZE);
+    CRC32 crc = new CRC32();
+    long lastSync = System.currentTimeMillis();
+    long lastCompact = lastSync;
+    boolean stop = false;
+    boolean unsynced = false;
+
+    try {
+      while (!stop) {
+        Long first = queue.poll(FSYNC_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        int count = 0;
+        if (first != null) {
+          drained.add(first);
+          queue.drainTo(drained, QUEUE_SIZE - 1);
+          for (int ii = 0; ii < drained.size(); ii++) {
+            long record = drained.get(ii);
+            if (record == STOP) {
+              stop = true;
+            }
+            else {
+              batch[count] = record;
+              count++;
+            }
+          }
+          drained.clear();
+        }
+
+        if (count > 0) {
+          buffer.clear();
+          for (int ii = 0; ii < count; ii++) {
+            buffer.putLong(batch[ii]);
+            buffer.putInt(getChecksum(crc, batch[ii]));
+          }
+          buffer.flip();
+          while (buffer.hasRemaining()) {
+            log.write(buffer);
+          }
+          logRecordCount += count;
+          unsynced = true;
+        }
+
+        long now = System.currentTimeMillis();
+        if ( unsynced && ((fsyncPolicy == FSYNC_ALWAYS) ||
+                          ((fsyncPolicy == FSYNC_INTERVAL) && (now - lastSync >= FSYNC_INTERVAL_MILLIS))) ) {
+          log.force(false);
+          lastSync = now;
+          unsynced = false;
+        }
+        if ( (logRecordCount >= COMPACT_RECORDS) || stop ||
+             ((logRecordCount > 0) && (now - lastCompact >= COMPACT_INTERVAL_MILLIS)) ) {
+          compact();
+          lastCompact = now;
+          unsynced = false;
+        }
+      }
+    } catch (IOException e) {
+      failure = e;
+    } catch (InterruptedException e) {
+      failure = new InterruptedIOException("Lose records log writer interrupted");
+    }
+  }
+
+  /**
+   * Append the records of the log to the lose records file, and empty the log.
+   */
+  private void compact() throws IOException {
+    if (logRecordCount > 0) {
+      long[] records = readRecords(log, loseRecordsFileName);
+      LoseRecordFile.append(loseRecordsFileName, records, records.length, fsyncPolicy != FSYNC_NEVER);
+    }
+    log.truncate(HEADER_SIZE);
+    log.position(HEADER_SIZE);
+    if (fsyncPolicy != FSYNC_NEVER) {
+      log.force(false);
+    }
+    logRecordCount = 0;
+  }
+
+  private void writeHeader() throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    header.putInt(MAGIC);
+    header.putShort(VERSION);
+    header.putShort((short) 0);
+    header.flip();
+    log.truncate(0);
+    log.write(header, 0);
+    log.force(false);
+  }
+
+  private static int getChecksum(CRC32 crc, long record) {
+    crc.reset();
+    for (int shift = 56; shift >= 0; shift -= 8) {
+      crc.update((int) (record >>> shift));
+    }
+    return (int) crc.getValue();
+  }
+
+  /**
+   * Read the good records of a log, up to the first record torn or with a bad checksum.
+   */
+  private static long[] readRecords(FileChannel channel, String loseRecordsFileName) throws IOException {
+    long size = channel.size();
+    if (size < HEADER_SIZE) {
+      return new long[0];
+    }
+    ByteBuffer buffer = ByteBuffer.allocate((int) size);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, buffer.position()) < 0) {
+        break;
+      }
+    }
+    buffer.flip();
+    if (buffer.getInt() != MAGIC) {
+      throw new IOException(getLogFileName(loseRecordsFileName) + " is not a lose records log");
+    }
+    short version = buffer.getShort();
+    if (version != VERSION) {
+      throw new IOException(getLogFileName(loseRecordsFileName) + " has unsupported version " + version);
+    }
+    buffer.position(HEADER_SIZE);
+
+    CRC32 crc = new CRC32();
+    long[] records = new long[buffer.remaining() / ENTRY_SIZE];
+    int count = 0;
+    while (buffer.remaining() >= ENTRY_SIZE) {
+      long record = buffer.getLong();
+      if (buffer.getInt() != getChecksum(crc, record)) {
+        break;
+      }
+      records[count] = record;
+      count++;
+    }
+    if (count < records.length || buffer.hasRemaining()) {
+      System.err.println("Dropped a torn lose record at the end of " + getLogFileName(loseRecordsFileName));
+    }
+    return Arrays.copyOf(records, count);
+  }
+
+  /**
+   * Recover the records left in the log of a lose records file by a crash: compact the good records
+   * into the lose records file and empty the log.
+   *
+   * @return the number of records recovered.
+   */
+  public static int recover(String loseRecordsFileName) throws IOException {
+    Path logFile = Paths.get(getLogFileName(loseRecordsFileName));
+    if (!Files.exists(logFile)) {
+      return 0;
+    }
+
+    FileChannel channel = FileChannel.open(logFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    try {
+      long[] records = readRecords(channel, loseRecordsFileName);
+      if (records.length > 0) {
+        LoseRecordFile.append(loseRecordsFileName, records, records.length, true);
+      }
+      channel.truncate(Math.min(channel.size(), HEADER_SIZE));
+      channel.force(false);
+      return records.length;
+    } finally {
+      channel.close();
+    }
+  }
+}
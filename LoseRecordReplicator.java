@@ -0,0 +1,438 @@
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.LongConsumer;
+import java.util.zip.CRC32;
+
+/**
+ * LoseRecordReplicator - Share the lose records learned by several games running side by side, each
+ * with its own lose records file.
+ * <p>
+ * The lose records of all the games form one set that only grows: a lose learned by any game is a
+ * lose for all of them, in whatever order they learn it.  So a replicator only needs to tell the
+ * others each record it has not seen yet.  A record is saved in the canonical form of BoardSymmetry,
+ * so the same lose is always the same 64 bit record, its own content hash, and the records seen are
+ * kept in a LongHashSet: a record seen again, from any peer or in any order, is dropped there.  A new
+ * record, learned by the game (publish()) or received, is given to the game (receiver, only if
+ * received) and sent to all the peers but the one it came from, so the records reach the games
+ * connected through others too.
+ * <p>
+ * The peers are connected by sockets, on the local host or not: a replicator listens on a port
+ * (listen()) and connects to the ports of others (connect()), again every RECONNECT_MILLIS when a
+ * connection is lost.  A connection starts with the magic "TTTR" from each side, then each side sends
+ * all the records it has seen, and then the new ones, 8 bytes each.  A record is written by one writer
+ * thread of the connection, so a game never waits for a peer.
+ * <p>
+ * Without sockets, the games share a spool directory (useSpool()).  Each lose records file has its
+ * own spool file there, named by a hash of its path, where the new records are appended in entries of
+ * 12 bytes like LoseRecordLog: the record and the CRC32 of its 8 bytes.  Every SPOOL_POLL_MILLIS, the
+ * records waiting are appended to the spool file, and the spool files of the others are read from
+ * where they were left, up to the first entry not written completely yet.  A spool file is appended
+ * the records it does not have yet when the replicator starts, so the games starting later get all
+ * of them.
+ */
+public class LoseRecordReplicator {
+  public static final int MAGIC = 0x54545452;  //"TTTR"
+  public static final int SPOOL_ENTRY_SIZE = 12;
+  public static final String SPOOL_SUFFIX = ".spool";
+
+  private static final long RECONNECT_MILLIS = 2000;
+  private static final long SPOOL_POLL_MILLIS = 200;
+  private static final long CLOSE_MILLIS = 1000;
+  private static final long STOP = 0L;  //never a record, tells a writer to stop
+
+  private final LongConsumer receiver;
+  private final LongHashSet seenRecords;
+  private long[] records;  //the records seen, in the order seen, to send to a new peer
+  private int recordCount;
+  private final List<Connection> connections;
+  private final Queue<Long> spoolQueue;
+  private volatile ServerSocket server;
+  private volatile Thread spoolThread;
+  private volatile boolean closed;
+
+  /**
+   * @param receiver gets each record received that was not seen yet, from any thread of the replicator.
+   */
+  public LoseRecordReplicator(LongConsumer receiver) {
+    this.receiver = receiver;
+    seenRecords = new LongHashSet();
+    records = new long[256];
+    recordCount = 0;
+    connections = new CopyOnWriteArrayList<Connection>();
+    spoolQueue = new ConcurrentLinkedQueue<Long>();
+    closed = false;
+  }
+
+  /**
+   * Add a record the game has already, such as one of its lose records file, to send it to the peers
+   * connecting later, but not as a new record.
+   */
+  public void addSeen(long record) {
+    if (LoseRecordFile.isValidRecord(record)) {
+      see(BoardSymmetry.canonical(record, LoseRecordFile.getMoveCount(record)));
+    }
+  }
+
+  /**
+   * Send a lose record learned by the game to all the peers, if it was not seen yet.
+   */
+  public void publish(long record) {
+    long canonicalRecord = BoardSymmetry.canonical(record, LoseRecordFile.getMoveCount(record));
+    if (see(canonicalRecord)) {
+      send(canonicalRecord, null);
+    }
+  }
+
+  /**
+   * The number of different records seen, from the game and from its peers.
+   */
+  public synchronized int getRecordCount() {
+    return recordCount;
+  }
+
+  /**
+   * A record received from a peer or a spool file: given to the game and sent on if it is new.
+   */
+  private void receive(long record, Connection from) {
+    if (!LoseRecordFile.isValidRecord(record)) {
+      return;
+    }
+    long canonicalRecord = BoardSymmetry.canonical(record, LoseRecordFile.getMoveCount(record));
+    if (see(canonicalRecord)) {
+      receiver.accept(canonicalRecord);
+      send(canonicalRecord, from);
+    }
+  }
+
+  /**
+   * @return true if the record was not seen yet.
+   */
+  private boolean see(long record) {
+    if (!seenRecords.add(record)) {
+      return false;
+    }
+    synchronized (this) {
+      if (recordCount == records.length) {
+        records = Arrays.copyOf(records, recordCount * 2);
+      }
+      records[recordCount++] = record;
+    }
+    return true;
+  }
+
+  private synchronized long[] getRecords() {
+    return Arrays.copyOf(records, recordCount);
+  }
+
+  private void send(long record, Connection from) {
+    for (Connection connection : connections) {
+      if (connection != from) {
+        connection.queue.add(record);
+      }
+    }
+    spoolQueue.add(record);
+  }
+
+  /**
+   * Accept the connections of the peers on a port, in the background.
+   */
+  public void listen(int port) throws IOException {
+    final ServerSocket server = new ServerSocket(port);
+    this.server = server;
+    startThread("LoseRecordReplicator-" + port, () -> {
+      try {
+        while (!closed) {
+          final Socket socket = server.accept();
+          startThread("LoseRecordReplicator-" + socket.getRemoteSocketAddress(), () -> serve(socket));
+        }
+      } catch (IOException e) {
+        if (!closed) {
+          e.printStackTrace();
+        }
+      } finally {
+        try {
+          server.close();
+        } catch (IOException e) {
+          //not accepting anyway
+        }
+      }
+    });
+  }
+
+  /**
+   * Connect to a peer in the background, and again each time the connection is lost.
+   */
+  public void connect(final String host, final int port) {
+    startThread("LoseRecordReplicator-" + host + ":" + port, () -> {
+      while (!closed) {
+        try {
+          serve(new Socket(host, port));
+        } catch (IOException e) {
+          //the peer is not started yet, or gone
+        }
+        try {
+          Thread.sleep(RECONNECT_MILLIS);
+        } catch (InterruptedException e) {
+          return;
+        }
+      }
+    });
+  }
+
+  /**
+   * Exchange the records with a peer until the connection is closed: send all the records seen, then
+   * the new ones, and receive the records of the peer.
+   */
+  private void serve(Socket socket) {
+    Connection connection = new Connection(socket);
+    connections.add(connection);  //before getting the records seen, so no new one is missed
+    try {
+      socket.setTcpNoDelay(true);
+      long[] seen = getRecords();
+      for (int ii = 0; ii < seen.length; ii++) {
+        connection.queue.add(seen[ii]);
+      }
+      connection.writer = startThread("LoseRecordReplicator-writer", connection::writeRecords);
+
+      DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      if (input.readInt() != MAGIC) {
+        return;  //not a replicator
+      }
+      while (!closed) {
+        receive(input.readLong(), connection);
+      }
+    } catch (IOException e) {
+      //the peer is gone, including EOFException
+    } finally {
+      connections.remove(connection);
+      connection.close();
+    }
+  }
+
+  /**
+   * Share the records through the spool files of a directory, polled in the background.
+   *
+   * @param recordsFileName the lose records file of the game, naming its spool file.
+   */
+  public void useSpool(String spoolDirectory, String recordsFileName) throws IOException {
+    final Path directory = Paths.get(spoolDirectory);
+    Files.createDirectories(directory);
+    String name = Integer.toHexString(Paths.get(recordsFileName).toAbsolutePath().normalize().toString().hashCode());
+    final Path spoolFile = directory.resolve(name + SPOOL_SUFFIX);
+    final FileChannel spool = FileChannel.open(spoolFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                               StandardOpenOption.WRITE);
+
+    //the records of the spool file from the last run, and the records seen not in it yet
+    final LongHashSet spooled = new LongHashSet();
+    long spoolLength = readSpool(spool, 0, record -> {
+      spooled.add(record);
+      receive(record, null);
+    });
+    spool.truncate(spoolLength);  //an entry cut by a crash
+    long[] seen = getRecords();
+    for (int ii = 0; ii < seen.length; ii++) {
+      if (!spooled.contains(seen[ii])) {
+        spoolQueue.add(seen[ii]);
+      }
+    }
+
+    final Map<Path, Long> offsets = new HashMap<Path, Long>();
+    spoolThread = startThread("LoseRecordReplicator-spool", () -> {
+      try {
+        while (!closed) {
+          writeSpool(spool, spooled);
+          try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SPOOL_SUFFIX)) {
+            for (Path file : files) {
+              if (!file.equals(spoolFile)) {
+                offsets.put(file, readSpool(file, offsets.getOrDefault(file, 0L)));
+              }
+            }
+          }
+          Thread.sleep(SPOOL_POLL_MILLIS);
+        }
+      } catch (IOException e) {
+        e.printStackTrace();
+      } catch (InterruptedException e) {
+        //closed
+      } finally {
+        try {
+          writeSpool(spool, spooled);
+          spool.close();
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      }
+    });
+  }
+
+  /**
+   * Append the records waiting to the spool file, each once.
+   */
+  private void writeSpool(FileChannel spool, LongHashSet spooled) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(SPOOL_ENTRY_SIZE * 64);
+    Long record;
+    while ((record = spoolQueue.poll()) != null) {
+      if (!spooled.add(record)) {
+        continue;
+      }
+      buffer.putLong(record);
+      CRC32 crc = new CRC32();
+      crc.update(buffer.array(), buffer.position() - 8, 8);
+      buffer.putInt((int) crc.getValue());
+      if (!buffer.hasRemaining()) {
+        buffer.flip();
+        spool.write(buffer, spool.size());
+        buffer.clear();
+      }
+    }
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      spool.write(buffer, spool.size());
+    }
+  }
+
+  /**
+   * Receive the records of the spool file of a peer, from an offset.
+   *
+   * @return the offset after the last complete entry read.
+   */
+  private long readSpool(Path file, long offset) throws IOException {
+    FileChannel channel;
+    try {
+      channel = FileChannel.open(file, StandardOpenOption.READ);
+    } catch (NoSuchFileException e) {
+      return offset;
+    }
+    try {
+      return readSpool(channel, offset, record -> receive(record, null));
+    } finally {
+      channel.close();
+    }
+  }
+
+  /**
+   * Read the entries of a spool file from an offset, up to the first one not complete or with a bad
+   * checksum, still being written.
+   *
+   * @return the offset after the last good entry.
+   */
+  private static long readSpool(FileChannel channel, long offset, LongConsumer consumer) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(SPOOL_ENTRY_SIZE * 1024);
+    CRC32 crc = new CRC32();
+    while (channel.read(buffer, offset + buffer.position()) > 0) {
+      buffer.flip();
+      while (buffer.remaining() >= SPOOL_ENTRY_SIZE) {
+        crc.reset();
+        crc.update(buffer.array(), buffer.position(), 8);
+        long record = buffer.getLong();
+        if (buffer.getInt() != (int) crc.getValue()) {
+          return offset;
+        }
+        consumer.accept(record);
+        offset += SPOOL_ENTRY_SIZE;
+      }
+      buffer.compact();
+    }
+    return offset;
+  }
+
+  /**
+   * Stop sending and receiving the records, after sending the records queued to the peers and the
+   * spool file, waiting CLOSE_MILLIS at most.  The records received so far are already given to the
+   * game.
+   */
+  public void close() {
+    closed = true;
+    try {
+      ServerSocket socket = server;
+      if (socket != null) {
+        socket.close();
+      }
+      for (Connection connection : connections) {
+        connection.stop();
+      }
+      long deadline = System.currentTimeMillis() + CLOSE_MILLIS;
+      for (Connection connection : connections) {
+        Thread writer = connection.writer;
+        if (writer != null) {
+          writer.join(Math.max(1, deadline - System.currentTimeMillis()));
+        }
+        connection.close();
+      }
+      Thread spooler = spoolThread;
+      if (spooler != null) {
+        spooler.join(Math.max(1, deadline - System.currentTimeMillis()));
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static Thread startThread(String name, Runnable task) {
+    Thread thread = new Thread(task, name);
+    thread.setDaemon(true);
+    thread.start();
+    return thread;
+  }
+
+  /**
+   * A connection to a peer, and the records waiting to be sent to it.
+   */
+  private static class Connection {
+    final Socket socket;
+    final BlockingQueue<Long> queue;
+    Thread writer;
+
+    Connection(Socket socket) {
+      this.socket = socket;
+      queue = new LinkedBlockingQueue<Long>();
+    }
+
+    /**
+     * Write the magic, then the records queued, flushed when no more record is waiting, until
+     * stopped.
+     */
+    void writeRecords() {
+      try {
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        output.writeInt(MAGIC);
+        output.flush();
+        for (long record = queue.take(); record != STOP; record = queue.take()) {
+          output.writeLong(record);
+          if (queue.isEmpty()) {
+            output.flush();
+          }
+        }
+        output.flush();
+        socket.shutdownOutput();  //the peer reads the end, and drops the connection
+      } catch (IOException e) {
+        close();  //the reader gets an exception too, and drops the connection
+      } catch (InterruptedException e) {
+        close();
+      }
+    }
+
+    /**
+     * Send the records queued, then end the connection.
+     */
+    void stop() {
+      queue.add(STOP);
+    }
+
+    void close() {
+      queue.add(STOP);
+      try {
+        socket.close();
+      } catch (IOException e) {
+        //closed anyway
+      }
+    }
+  }
+}
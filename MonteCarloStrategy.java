@@ -0,0 +1,251 @@
+import java.util.SplittableRandom;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * MonteCarloStrategy - Pick a move by Monte Carlo tree search.
+ * <p>
+ * Each iteration walks down the search tree from the current position, picking the child with the
+ * best upper confidence bound (UCT), adds the children of the node reached, and plays a random game
+ * from there, the same random play as RandomStrategy.  The result is added to all the nodes on the
+ * way back up.  The move played is the child of the root visited most.
+ * <p>
+ * The search runs on a Board, so it works on a board of any size: each task plays the moves of an
+ * iteration on its own copy of the board, and the random games use the free cells of the board, so
+ * a rollout allocates nothing.  On the 3x3 board the game is turned into a Board first.
+ * <p>
+ * The iterations run in parallel on a ForkJoinPool, all the tasks sharing one tree (tree
+ * parallelisation).  A node counts a visit as soon as a task walks through it, before the result is
+ * known, as a virtual loss: the other tasks see it as a worse move for a moment and spread over the
+ * other moves instead of all walking the same path.
+ * <p>
+ * The budget of a move is a number of iterations, or a time in milliseconds if set.  The options are
+ * given as "iterations=20000,millis=50,tasks=4"; tasks is the number of tasks run in parallel, the
+ * parallelism of the common pool by default.  The iterations, the rollouts per second and the nodes
+ * of the last search can be read to tune it.
+ */
+public class MonteCarloStrategy implements MoveStrategy, BoardStrategy {
+  private static final double EXPLORATION = Math.sqrt(2);
+
+  private SplittableRandom random;
+  private int iterations;
+  private long millis;
+  private int tasks;
+  private ForkJoinPool pool;
+
+  private long lastRollouts;
+  private long lastNanos;
+  private int lastNodeCount;
+
+  public MonteCarloStrategy(SplittableRandom random, int iterations, long millis, int tasks) {
+    this.random = random;
+    this.iterations = iterations;
+    this.millis = millis;
+    this.tasks = Math.max(1, tasks);
+    pool = ForkJoinPool.commonPool();
+  }
+
+  /**
+   * Create a strategy from its options, such as "iterations=20000,tasks=4" or "millis=50".  Options
+   * not given take the defaults: 20000 iterations, no time limit, the parallelism of the common pool.
+   */
+  public static MonteCarloStrategy parse(String options, SplittableRandom random) {
+    int iterations = 20000;
+    long millis = 0;
+    int tasks = ForkJoinPool.getCommonPoolParallelism();
+    String[] pairs = options.split(",");
+    for (int ii = 0; ii < pairs.length; ii++) {
+      String pair = pairs[ii].trim();
+      if (pair.length() == 0) {
+        continue;
+      }
+      int equal = pair.indexOf('=');
+      if (equal < 0) {
+        throw new IllegalArgumentException("Bad MCTS option: " + pair);
+      }
+      String name = pair.substring(0, equal);
+      long value = Long.parseLong(pair.substring(equal + 1));
+      if (name.equals("iterations")) {
+        iterations = (int) value;
+      }
+      else if (name.equals("millis")) {
+        millis = value;
+      }
+      else if (name.equals("tasks")) {
+        tasks = (int) value;
+      }
+      else {
+        throw new IllegalArgumentException("Unknown MCTS option: " + name);
+      }
+    }
+    return new MonteCarloStrategy(random, iterations, millis, tasks);
+  }
+
+  public int nextMove(GameState state) {
+    return nextMove(Board.fromGameState(state));
+  }
+
+  public int nextMove(Board board) {
+    final Board rootBoard = new Board(board);
+    final Node root = new Node(0, null, rootBoard.getSideToMove() == Board.PERSON);
+    final AtomicInteger nodeCount = new AtomicInteger(1);
+    final AtomicLong iterationsLeft = new AtomicLong(iterations);
+    final long deadline = (millis > 0) ? System.nanoTime() + millis * 1000000 : Long.MAX_VALUE;
+    long startTime = System.nanoTime();
+
+    ForkJoinTask<?>[] searches = new ForkJoinTask<?>[tasks];
+    for (int ii = 0; ii < tasks; ii++) {
+      final SplittableRandom taskRandom = random.split();
+      searches[ii] = pool.submit(() -> {
+        Board taskBoard = new Board(rootBoard);
+        while ( ((millis > 0) ? (System.nanoTime() < deadline) : (iterationsLeft.getAndDecrement() > 0)) ) {
+          taskBoard.copyFrom(rootBoard);
+          search(root, taskBoard, taskRandom, nodeCount);
+        }
+      });
+    }
+    for (int ii = 0; ii < tasks; ii++) {
+      searches[ii].join();
+    }
+    if (root.children == null) {
+      search(root, new Board(rootBoard), random, nodeCount);  //a budget too small for one iteration
+    }
+
+    lastNanos = System.nanoTime() - startTime;
+    lastRollouts = root.visits.get();
+    lastNodeCount = nodeCount.get();
+
+    Node best = null;
+    Node[] children = root.children;
+    for (int ii = 0; ii < children.length; ii++) {
+      if ( (best == null) || (children[ii].visits.get() > best.visits.get()) ) {
+        best = children[ii];
+      }
+    }
+    return best.move;
+  }
+
+  public long getLastRollouts() {
+    return lastRollouts;
+  }
+
+  public int getLastNodeCount() {
+    return lastNodeCount;
+  }
+
+  public long getLastRolloutsPerSecond() {
+    return lastRollouts * 1000000000L / Math.max(1, lastNanos);
+  }
+
+  /**
+   * One iteration: select, expand, roll out and back up.  The moves are played on the board.
+   */
+  private static void search(Node root, Board board, SplittableRandom random, AtomicInteger nodeCount) {
+    Node node = root;
+    node.visits.incrementAndGet();  //virtual loss until the result is added
+    int result;
+    while (true) {
+      if (board.isOver()) {
+        result = getResult(board);
+        break;
+      }
+
+      Node[] children = node.children;
+      if (children == null) {
+        if (node.visits.get() <= 1 && node != root) {
+          result = rollout(board, random);  //a new leaf, play it out first
+          break;
+        }
+        children = node.expand(board, nodeCount);
+      }
+
+      node = select(node, children);
+      node.visits.incrementAndGet();
+      board.play(node.move);
+    }
+
+    //back up, each node scores for the side who made its move: 2 for a win, 1 for a tie
+    for (; node.parent != null; node = node.parent) {
+      node.score.addAndGet(getScore(result, node.computerMoved));
+    }
+  }
+
+  private static int getResult(Board board) {
+    if (board.getWinner() == Board.COMPUTER) {
+      return TicTacToe.COMPUTER_WIN;
+    }
+    else if (board.getWinner() == Board.PERSON) {
+      return TicTacToe.PERSON_WIN;
+    }
+    return TicTacToe.TIE;
+  }
+
+  private static int getScore(int result, boolean computerMoved) {
+    if (result == TicTacToe.TIE) {
+      return 1;
+    }
+    return (result == TicTacToe.COMPUTER_WIN) == computerMoved ? 2 : 0;
+  }
+
+  private static Node select(Node parent, Node[] children) {
+    double logVisits = Math.log(Math.max(1, parent.visits.get()));
+    Node best = null;
+    double bestValue = Double.NEGATIVE_INFINITY;
+    for (int ii = 0; ii < children.length; ii++) {
+      int visits = children[ii].visits.get();
+      double value = (visits == 0) ? Double.POSITIVE_INFINITY :
+                     children[ii].score.get() / (2.0 * visits) + EXPLORATION * Math.sqrt(logVisits / visits);
+      if (value > bestValue) {
+        bestValue = value;
+        best = children[ii];
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Play random moves until the game ends, the same as BoardRandomStrategy.
+   */
+  private static int rollout(Board board, SplittableRandom random) {
+    while (!board.isOver()) {
+      board.play(board.getFreeMove(random.nextInt(board.getFreeCount())));
+    }
+    return getResult(board);
+  }
+
+  /**
+   * A node of the search tree, the position after its move.
+   */
+  private static class Node {
+    final int move;
+    final Node parent;
+    final boolean computerMoved;  //the side who made the move
+    final AtomicInteger visits;
+    final AtomicInteger score;    //2 for a win and 1 for a tie of the side who made the move
+    volatile Node[] children;
+
+    Node(int move, Node parent, boolean computerMoved) {
+      this.move = move;
+      this.parent = parent;
+      this.computerMoved = computerMoved;
+      visits = new AtomicInteger(0);
+      score = new AtomicInteger(0);
+    }
+
+    /**
+     * Add a child for each free move, once even if several tasks get here at the same time.
+     */
+    synchronized Node[] expand(Board board, AtomicInteger nodeCount) {
+      if (children == null) {
+        boolean computerToMove = (board.getSideToMove() == Board.COMPUTER);
+        Node[] newChildren = new Node[board.getFreeCount()];
+        for (int ii = 0; ii < newChildren.length; ii++) {
+          newChildren[ii] = new Node(board.getFreeMove(ii), this, computerToMove);
+        }
+        nodeCount.addAndGet(newChildren.length);
+        children = newChildren;
+      }
+      return children;
+    }
+  }
+}
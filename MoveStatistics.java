@@ -0,0 +1,181 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * MoveStatistics - Win, tie and lose counts of each move from each position, learned from the games.
+ * <p>
+ * The counts are kept for the canonical positions only (see BoardSymmetry), with the moves turned by
+ * the same transform, so a game teaches all its rotations and reflections at once.  A slot is
+ * (canonical position index * 9 + move - 1) in three int arrays, so a lookup is three array reads and
+ * the counts of all the 3^9 positions take about 2M bytes.  The counts are from the side making the
+ * move: a win is a game won by the side who moved.
+ * <p>
+ * The counts can be updated by games played at the same time without any lock, each count is
+ * incremented atomically.
+ * <p>
+ * The counts are saved to a snapshot file with only the slots used: the magic "TTTS", a 2 byte
+ * version, 2 reserved bytes and the number of slots, then 16 bytes for each slot: the slot, the wins,
+ * the ties and the loses.  It is written to a temporary file and renamed over the old one.
+ */
+public class MoveStatistics {
+  public static final int MAGIC = 0x54545453;  //"TTTS"
+  public static final short VERSION = 1;
+  public static final int HEADER_SIZE = 12;
+  public static final int SLOT_SIZE = 16;
+
+  private static final int SLOT_NUMBER = GameState.POSITION_NUMBER * 9;
+
+  private final AtomicIntegerArray wins;
+  private final AtomicIntegerArray ties;
+  private final AtomicIntegerArray loses;
+
+  public MoveStatistics() {
+    wins = new AtomicIntegerArray(SLOT_NUMBER);
+    ties = new AtomicIntegerArray(SLOT_NUMBER);
+    loses = new AtomicIntegerArray(SLOT_NUMBER);
+  }
+
+  /**
+   * Get the slot of a move from a position, by the canonical position and the move turned the same.
+   */
+  public static int getSlot(int positionIndex, int move) {
+    int t = BoardSymmetry.getCanonicalTransform(positionIndex);
+    return BoardSymmetry.getCanonicalPosition(positionIndex) * 9 + BoardSymmetry.transformMove(move, t) - 1;
+  }
+
+  public int getWins(int slot) {
+    return wins.get(slot);
+  }
+
+  public int getTies(int slot) {
+    return ties.get(slot);
+  }
+
+  public int getLoses(int slot) {
+    return loses.get(slot);
+  }
+
+  public int getGames(int slot) {
+    return wins.get(slot) + ties.get(slot) + loses.get(slot);
+  }
+
+  /**
+   * Count the result of a game for all the moves of one side.
+   *
+   * @param computerSide true for the moves of the computer, false for the person.
+   * @param result TicTacToe.COMPUTER_WIN, TicTacToe.PERSON_WIN or TicTacToe.TIE.
+   */
+  public void addGame(GameState state, boolean computerSide, int result) {
+    int sideResult = computerSide ? result : -result;
+    int computerMask = 0;
+    int personMask = 0;
+    for (int ii = 0; ii < state.getMoveCount(); ii++) {
+      int move = state.getMove(ii);
+      boolean computerMove = (ii % 2 == 0);
+      if (computerMove == computerSide) {
+        int slot = getSlot(GameState.getPositionIndex(computerMask, personMask), move);
+        if (sideResult == TicTacToe.COMPUTER_WIN) {
+          wins.incrementAndGet(slot);
+        }
+        else if (sideResult == TicTacToe.TIE) {
+          ties.incrementAndGet(slot);
+        }
+        else {
+          loses.incrementAndGet(slot);
+        }
+      }
+      if (computerMove) {
+        computerMask |= 1 << (move-1);
+      }
+      else {
+        personMask |= 1 << (move-1);
+      }
+    }
+  }
+
+  /**
+   * Load a snapshot file.
+   *
+   * @return the statistics, empty if the file does not exist.
+   */
+  public static MoveStatistics load(String fileName) throws IOException {
+    MoveStatistics statistics = new MoveStatistics();
+    Path file = Paths.get(fileName);
+    if (!Files.exists(file)) {
+      return statistics;
+    }
+
+    FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+    try {
+      ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      if ((buffer.remaining() < HEADER_SIZE) || (buffer.getInt() != MAGIC)) {
+        throw new IOException(fileName + " is not a move statistics file");
+      }
+      short version = buffer.getShort();
+      if (version != VERSION) {
+        throw new IOException(fileName + " has unsupported version " + version);
+      }
+      buffer.getShort();
+      int slotCount = buffer.getInt();
+      if (buffer.remaining() < (long) slotCount * SLOT_SIZE) {
+        throw new IOException(fileName + " is truncated");
+      }
+      for (int ii = 0; ii < slotCount; ii++) {
+        int slot = buffer.getInt();
+        if ((slot < 0) || (slot >= SLOT_NUMBER)) {
+          throw new IOException(fileName + " has a bad slot " + slot);
+        }
+        statistics.wins.set(slot, buffer.getInt());
+        statistics.ties.set(slot, buffer.getInt());
+        statistics.loses.set(slot, buffer.getInt());
+      }
+    } finally {
+      channel.close();
+    }
+    return statistics;
+  }
+
+  /**
+   * Save a snapshot file, with the slots used only.
+   */
+  public void save(String fileName) throws IOException {
+    int slotCount = 0;
+    for (int slot = 0; slot < SLOT_NUMBER; slot++) {
+      if (getGames(slot) != 0) {
+        slotCount++;
+      }
+    }
+
+    Path file = Paths.get(fileName).toAbsolutePath();
+    Path tempFile = Files.createTempFile(file.getParent(), file.getFileName() + ".", ".tmp");
+    try {
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile.toString())));
+      try {
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeShort(0);
+        out.writeInt(slotCount);
+        for (int slot = 0; (slot < SLOT_NUMBER) && (slotCount > 0); slot++) {
+          int slotWins = wins.get(slot);
+          int slotTies = ties.get(slot);
+          int slotLoses = loses.get(slot);
+          if (slotWins + slotTies + slotLoses != 0) {
+            out.writeInt(slot);
+            out.writeInt(slotWins);
+            out.writeInt(slotTies);
+            out.writeInt(slotLoses);
+            slotCount--;
+          }
+        }
+      } finally {
+        out.close();
+      }
+      Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(tempFile);
+    }
+  }
+}
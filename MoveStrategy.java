@@ -0,0 +1,30 @@
+/**
+ * MoveStrategy - A player of the game, picking the next move for the side to move.
+ * <p>
+ * Any two strategies can play a game with each other, the computer side (X, moving first) and the
+ * person side (O).  The strategies are:<br>
+ * LearningStrategy, random moves avoiding the historical loses.<br>
+ * RandomStrategy, random moves only.<br>
+ * PerfectPlayStrategy, the best moves from PerfectPlay.<br>
+ * HumanStrategy, moves entered by a person.<br>
+ * ScriptedStrategy, a fixed list of moves.<br>
+ * StatisticsStrategy, the moves with the best results so far, from MoveStatistics.<br>
+ * MonteCarloStrategy, the moves found best by a Monte Carlo tree search of random games.
+ */
+public interface MoveStrategy {
+  /**
+   * Pick the next move for the side to move.  The game is not changed.
+   *
+   * @return the move, with the one digit encoding of TicTacToe.
+   */
+  int nextMove(GameState state);
+
+  /**
+   * Tell the strategy a game it played has ended, so it can learn from it.  Most strategies do not
+   * learn this way and ignore it.
+   *
+   * @param result TicTacToe.COMPUTER_WIN, TicTacToe.PERSON_WIN or TicTacToe.TIE.
+   */
+  default void gameEnded(GameState state, int result) {
+  }
+}
@@ -0,0 +1,77 @@
+/**
+ * OpeningBook - The lose moves of every position of the first moves, precomputed from a
+ * LosePositionStore.
+ * <p>
+ * The first moves of the games are the same few positions again and again: 1 empty board, 9
+ * positions after one move, 72 after two, 252 after three and 756 after four.  For each of them,
+ * in all their rotations and reflections, the book keeps the mask of the moves leading to a lose
+ * position, so the lose moves of an opening are one array read by the position index, with no
+ * symmetry lookup and no bit test for each free position.
+ * <p>
+ * A book never changes after it is built, so it is shared by all the games without any lock.  It
+ * knows the version of the short lose positions it was built from (see
+ * LosePositionStore.getLoseMoves()), and the store builds a new one when a lose position of DEPTH+1
+ * moves or less is added or derived.
+ */
+public final class OpeningBook {
+  public static final int DEPTH = 4;  //positions of up to 4 moves, the first 5 moves of a game
+
+  private final short[] loseMoves;  //by position index, the positions of up to DEPTH moves only
+  private final int version;
+
+  /**
+   * Build the book from the lose positions of a store.
+   *
+   * @param version the version of the short lose positions of the store, read before building.
+   */
+  OpeningBook(LosePositionStore store, int version) {
+    this.version = version;
+    loseMoves = new short[GameState.POSITION_NUMBER];
+    fill(store, 0, 0, 0);
+  }
+
+  public int getVersion() {
+    return version;
+  }
+
+  /**
+   * Get the lose moves of the side to move from a position of up to DEPTH moves.
+   *
+   * @return bit mask of the lose moves, bit (move-1) for a move.
+   */
+  public int getLoseMoves(int positionIndex) {
+    return loseMoves[positionIndex];
+  }
+
+  /**
+   * Fill the lose moves of a position and of all the positions after it, up to DEPTH moves.  A
+   * position reached by several move orders is filled again with the same value.
+   */
+  private void fill(LosePositionStore store, int computerMask, int personMask, int moveCount) {
+    boolean computerToMove = (moveCount % 2 == 0);
+    int freeMoves = ~(computerMask | personMask) & GameState.ALL_MOVES;
+    int positionLoseMoves = 0;
+    for (int moves = freeMoves; moves != 0; moves &= moves - 1) {
+      int moveBit = moves & -moves;
+      boolean lose = computerToMove ? store.isLose(computerMask | moveBit, personMask) :
+                                      store.isLose(computerMask, personMask | moveBit);
+      if (lose) {
+        positionLoseMoves |= moveBit;
+      }
+    }
+    loseMoves[GameState.getPositionIndex(computerMask, personMask)] = (short) positionLoseMoves;
+
+    if (moveCount == DEPTH) {
+      return;
+    }
+    for (int moves = freeMoves; moves != 0; moves &= moves - 1) {
+      int moveBit = moves & -moves;
+      if (computerToMove) {
+        fill(store, computerMask | moveBit, personMask, moveCount + 1);
+      }
+      else {
+        fill(store, computerMask, personMask | moveBit, moveCount + 1);
+      }
+    }
+  }
+}
@@ -0,0 +1,154 @@
+/**
+ * PerfectPlay - Table of the perfect play for all the Tic Tac Toe positions.
+ * <p>
+ * A position is indexed by its base 3 index from GameState, so all the positions fit in an array of
+ * 3^9 = 19683 entries, and two move orders reaching the same board have the same entry.
+ * <p>
+ * The table is computed once by a full minimax analysis from the empty board, which visits each of
+ * the 5478 legal positions once.  Each entry packs the result of the position with both sides
+ * playing perfectly and all the moves keeping that result:<br>
+ * bits 0-8: the best moves, bit (move-1) for a move<br>
+ * bits 9-10: the result + 1, with COMPUTER_WIN, TIE or PERSON_WIN from TicTacToe<br>
+ * so a perfect move is one array read.
+ */
+public class PerfectPlay {
+  private static final int MOVES_MASK = 0x1FF;
+  private static final int RESULT_SHIFT = 9;
+  private static final int NOT_COMPUTED = -1;
+
+  private static final short[] TABLE = new short[GameState.POSITION_NUMBER];
+
+  static {
+    java.util.Arrays.fill(TABLE, (short) NOT_COMPUTED);
+    analyze(0, 0);
+  }
+
+  /**
+   * Get the result of a game from its position, if both sides play perfectly from now on.
+   *
+   * @return TicTacToe.COMPUTER_WIN, TicTacToe.TIE or TicTacToe.PERSON_WIN.
+   */
+  public static int getResult(GameState state) {
+    return getResult(state.getComputerMask(), state.getPersonMask());
+  }
+
+  public static int getResult(int computerMask, int personMask) {
+    return (TABLE[GameState.getPositionIndex(computerMask, personMask)] >> RESULT_SHIFT) - 1;
+  }
+
+  /**
+   * Get all the best moves for the side to move, as a bit mask with bit (move-1) for a move.  It is
+   * 0 when the game has ended.
+   */
+  public static int getBestMoves(GameState state) {
+    return TABLE[state.getPositionIndex()] & MOVES_MASK;
+  }
+
+  /**
+   * Minimax analysis of a position and all the positions after it.  The computer moves when both
+   * sides have the same number of moves.
+   *
+   * @return the result of the position.
+   */
+  private static int analyze(int computerMask, int personMask) {
+    int index = GameState.getPositionIndex(computerMask, personMask);
+    if (TABLE[index] != NOT_COMPUTED) {
+      return (TABLE[index] >> RESULT_SHIFT) - 1;
+    }
+
+    int result;
+    int bestMoves = 0;
+    int freeMoves = ~(computerMask | personMask) & GameState.ALL_MOVES;
+    if (GameState.hasLine(computerMask)) {
+      result = TicTacToe.COMPUTER_WIN;
+    }
+    else if (GameState.hasLine(personMask)) {
+      result = TicTacToe.PERSON_WIN;
+    }
+    else if (freeMoves == 0) {
+      result = TicTacToe.TIE;
+    }
+    else {
+      boolean computerToMove = Integer.bitCount(computerMask) == Integer.bitCount(personMask);
+      result = computerToMove ? TicTacToe.PERSON_WIN : TicTacToe.COMPUTER_WIN;  //worst result first
+      for (int moves = freeMoves; moves != 0; moves &= moves - 1) {
+        int moveBit = moves & -moves;
+        int moveResult = computerToMove ? analyze(computerMask | moveBit, personMask) :
+                                          analyze(computerMask, personMask | moveBit);
+        if (moveResult == result) {
+          bestMoves |= moveBit;
+        }
+        else if (computerToMove ? (moveResult > result) : (moveResult < result)) {
+          result = moveResult;
+          bestMoves = moveBit;
+        }
+      }
+    }
+
+    TABLE[index] = (short) (((result + 1) << RESULT_SHIFT) | bestMoves);
+    return result;
+  }
+
+  /**
+   * Check the lose positions learned against the perfect play, and print a report.
+   * <p>
+   * A lose position is sound if the other side can win after it with perfect play.  Then all the games
+   * the learner can play as the computer are walked: every person move, and every computer move not
+   * known as a lose move.  Each computer move losing a game which was not lost yet is a lose move the
+   * learner should know, and the share of those it knows shows how far it is from perfect.
+   */
+  public static void checkLosePositions(LosePositionStore losePositionStore) {
+    int[] positions = losePositionStore.getLosePositions();
+    int soundCount = 0;
+    for (int ii = 0; ii < positions.length; ii++) {
+      int computerMask = GameState.getComputerMask(positions[ii]);
+      int personMask = GameState.getPersonMask(positions[ii]);
+      boolean computerMovedLast = Integer.bitCount(computerMask) > Integer.bitCount(personMask);
+      int result = getResult(computerMask, personMask);
+      if (computerMovedLast ? (result == TicTacToe.PERSON_WIN) : (result == TicTacToe.COMPUTER_WIN)) {
+        soundCount++;
+      }
+      else {
+        System.out.println("Unsound lose position: " + positions[ii]);
+      }
+    }
+
+    long[] counts = new long[2];  //losing computer moves, losing computer moves known
+    countLosingMoves(new GameState(), losePositionStore, counts);
+
+    System.out.println("Lose positions: " + positions.length + ", sound: " + soundCount +
+                       ", unsound: " + (positions.length - soundCount));
+    System.out.println("Losing computer moves in the learner's games: " + counts[0] + ", known: " +
+                       counts[1] + " (" + (counts[0] == 0 ? 100 : counts[1] * 100 / counts[0]) + "%)");
+  }
+
+  private static void countLosingMoves(GameState state, LosePositionStore losePositionStore, long[] counts) {
+    if (state.hasWinner() || (state.getMoveCount() == TicTacToe.MAX_MOVE_NUMBER)) {
+      return;
+    }
+
+    int freeMoves = state.getFreeMoves();
+    int nextMoves = freeMoves;
+    if (state.getMoveCount() % 2 == 0) {
+      int loseMoves = losePositionStore.getLoseMoves(state);
+      if ((freeMoves & ~loseMoves) != 0) {
+        nextMoves = freeMoves & ~loseMoves;  //the learner never plays a known lose move
+      }
+      for (int moves = freeMoves; (moves != 0) && (getResult(state) != TicTacToe.PERSON_WIN); moves &= moves - 1) {
+        int moveBit = moves & -moves;
+        if (getResult(state.getComputerMask() | moveBit, state.getPersonMask()) == TicTacToe.PERSON_WIN) {
+          counts[0]++;
+          if ((loseMoves & moveBit) != 0) {
+            counts[1]++;
+          }
+        }
+      }
+    }
+
+    for (int moves = nextMoves; moves != 0; moves &= moves - 1) {
+      GameState next = new GameState(state);
+      next.play(Integer.numberOfTrailingZeros(moves) + 1);
+      countLosingMoves(next, losePositionStore, counts);
+    }
+  }
+}
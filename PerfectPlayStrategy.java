@@ -0,0 +1,17 @@
+import java.util.SplittableRandom;
+
+/**
+ * PerfectPlayStrategy - Pick a random one of the best moves from PerfectPlay.
+ */
+public class PerfectPlayStrategy implements MoveStrategy {
+  private SplittableRandom random;
+
+  public PerfectPlayStrategy(SplittableRandom random) {
+    this.random = random;
+  }
+
+  public int nextMove(GameState state) {
+    int bestMoves = PerfectPlay.getBestMoves(state);
+    return GameState.nthMove(bestMoves, random.nextInt(Integer.bitCount(bestMoves)) + 1);
+  }
+}
@@ -0,0 +1,17 @@
+import java.util.SplittableRandom;
+
+/**
+ * RandomStrategy - Pick a random free position, to simulate a person playing randomly.
+ */
+public class RandomStrategy implements MoveStrategy {
+  private SplittableRandom random;
+
+  public RandomStrategy(SplittableRandom random) {
+    this.random = random;
+  }
+
+  public int nextMove(GameState state) {
+    int freeMoves = state.getFreeMoves();
+    return GameState.nthMove(freeMoves, random.nextInt(Integer.bitCount(freeMoves)) + 1);
+  }
+}
@@ -0,0 +1,54 @@
+/**
+ * ScriptedStrategy - Play a fixed list of moves, one by one, such as to replay a game.
+ */
+public class ScriptedStrategy implements MoveStrategy {
+  private int[] moves;
+  private int nextIndex;
+
+  public ScriptedStrategy(int[] moves) {
+    this.moves = moves.clone();
+    nextIndex = 0;
+  }
+
+  /**
+   * Parse a script of "row#,col#" moves separated by ";", such as "1,1;2,2;3,3".
+   *
+   * @throws IllegalArgumentException if a move is not a row# and a col# from 1 to 3.
+   */
+  public static ScriptedStrategy parse(String script) {
+    String[] items = script.split(";");
+    int[] moves = new int[items.length];
+    for (int ii = 0; ii < items.length; ii++) {
+      String item = items[ii].trim();
+      if (!item.matches("[1-3] *, *[1-3]")) {
+        throw new IllegalArgumentException("Bad scripted move: \"" + items[ii] + "\"");
+      }
+      int moveX = item.charAt(0) - '0';
+      int moveY = item.charAt(item.length() - 1) - '0';
+      moves[ii] = (moveX-1)*3+moveY;
+    }
+    return new ScriptedStrategy(moves);
+  }
+
+  /**
+   * @throws IllegalStateException if the script has no more moves or its move is occupied.
+   */
+  public int nextMove(GameState state) {
+    if (nextIndex >= moves.length) {
+      throw new IllegalStateException("No more scripted moves");
+    }
+    int move = moves[nextIndex];
+    if (state.isOccupied(move)) {
+      throw new IllegalStateException("Scripted move " + move + " already used");
+    }
+    nextIndex++;
+    return move;
+  }
+
+  /**
+   * Start the script over for the next game.
+   */
+  public void gameEnded(GameState state, int result) {
+    nextIndex = 0;
+  }
+}
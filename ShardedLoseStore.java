@@ -0,0 +1,528 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.Arrays;
+import java.util.concurrent.atomic.*;
+import java.util.zip.CRC32;
+
+/**
+ * ShardedLoseStore - The lose positions split into shards by the first two moves of the games, each
+ * loaded only when a game reaches its opening.
+ * <p>
+ * After its first two moves, a game only looks up positions having the computer stone of its first
+ * move and the person stone of its second move.  The two moves have 72 orders, 12 once the rotations
+ * and reflections are set aside (see BoardSymmetry), so there are SHARD_NUMBER shards.  The shard of
+ * an opening keeps the lose positions of 5 moves or more having a computer stone and a person stone
+ * of the opening, as a sorted array of their canonical position indexes, 4 bytes each.  A position
+ * is in the shards of all the openings reaching it, so a game finds in its shard every lose position
+ * it can reach.  The lose positions of up to 4 moves, looked up by the first 4 moves of all the
+ * games, are in an opening store always loaded, a LosePositionStore with its OpeningBook.
+ * <p>
+ * The shards are saved in one file next to the lose records file, "loserecords.txt.shards", from the
+ * lose positions derived from the whole lose records file (see TicTacToe), so a shard is loaded with
+ * its lose positions derived already.  Like LosePositionSnapshot, the file has the length and the
+ * CRC32 of the lose records file it was derived from, but it is saved again once any record is
+ * appended to the lose records file, since the loses derived from a record may be in any shard.
+ * <p>
+ * The format is the magic "TTTH", a 2 byte version and 2 reserved bytes, the length of the lose
+ * records file (8 bytes), its CRC32, the number of records it has, and the number of regions, the
+ * opening positions and the SHARD_NUMBER shards.  Then the index, for each region the offset of its
+ * positions (8 bytes), their number and their CRC32, and a CRC32 of all the bytes before it.  Then
+ * the positions of each region, 4 bytes each, as canonical position indexes in increasing order.
+ * The file is memory mapped, and opening it reads the header, the index and the opening positions
+ * only, so the game starts in about the same time however many lose positions are learned; the
+ * positions of a shard are read the first time a game reaches it.
+ * <p>
+ * At most maxShards shards are kept in memory.  When one more is loaded, the shard started the least
+ * recently by a game is dropped, and it is read again when a game reaches it later.  So the memory
+ * is the opening store, about 42 KB, and the bit set of the loses learned in the session, about
+ * 2.5 KB, both fixed, and 4 bytes for each lose position of the shards loaded.
+ * <p>
+ * A lose learned in the session is marked in the session bit set, looked up by all the shards, so
+ * it is not forgotten with a shard dropped.  The shorter lose positions it completes are derived the
+ * same way as LosePositionStore.add(), looking up the shards of the positions around it, loaded if
+ * needed; the ones of up to 4 moves are added to the opening store.
+ * <p>
+ * The lookups take no lock, loading a shard and adding a lose lock the store.
+ */
+public class ShardedLoseStore implements LosePatterns {
+  public static final int MAGIC = 0x54545448;  //"TTTH"
+  public static final short VERSION = 1;
+  public static final int SHARD_NUMBER = 12;
+  public static final int HEADER_SIZE = 28;
+  public static final int INDEX_ENTRY_SIZE = 16;
+  private static final int REGION_NUMBER = SHARD_NUMBER + 1;  //the opening positions first
+  private static final int OPENING_MOVES = OpeningBook.DEPTH;
+
+  private static final byte[] SHARD_OF = new byte[256];  //by the two first moves, packed as in a history
+
+  private final Path file;
+  private final MappedByteBuffer mapping;
+  private final long[] regionOffsets;
+  private final int[] regionCounts;
+  private final int[] regionCrcs;
+  private final int recordCount;
+  private final int maxShards;
+  private final LosePositionStore openingStore;
+  private final AtomicLongArray sessionLoses;  //bit set of the loses of 5 moves or more learned since the start
+  private final AtomicReferenceArray<int[]> shards;
+  private final AtomicLongArray lastUse;  //by the clock when a game last started in the shard
+  private final AtomicLong clock;
+  private int loadedShardCount;           //under the lock
+  private int loadCount;
+
+  static {
+    long[] keys = new long[SHARD_NUMBER];
+    int keyCount = 0;
+    Arrays.fill(SHARD_OF, (byte) -1);
+    for (int move1 = 1; move1 <= 9; move1++) {
+      for (int move2 = 1; move2 <= 9; move2++) {
+        if (move1 == move2) {
+          continue;
+        }
+        long key = BoardSymmetry.canonical(move1 | (move2 << 4), 2);
+        int shard = 0;
+        while ( (shard < keyCount) && (keys[shard] != key) ) {
+          shard++;
+        }
+        if (shard == keyCount) {
+          keys[keyCount++] = key;
+        }
+        SHARD_OF[move1 | (move2 << 4)] = (byte) shard;
+      }
+    }
+  }
+
+  private ShardedLoseStore(Path file, MappedByteBuffer mapping, long[] regionOffsets, int[] regionCounts,
+                           int[] regionCrcs, int recordCount, int maxShards, LosePositionStore openingStore) {
+    this.file = file;
+    this.mapping = mapping;
+    this.regionOffsets = regionOffsets;
+    this.regionCounts = regionCounts;
+    this.regionCrcs = regionCrcs;
+    this.recordCount = recordCount;
+    this.maxShards = Math.max(1, maxShards);
+    this.openingStore = openingStore;
+    sessionLoses = new AtomicLongArray((GameState.POSITION_NUMBER + 63) / 64);
+    shards = new AtomicReferenceArray<int[]>(SHARD_NUMBER);
+    lastUse = new AtomicLongArray(SHARD_NUMBER);
+    clock = new AtomicLong(0);
+  }
+
+  public static String getFileName(String recordsFileName) {
+    return recordsFileName + ".shards";
+  }
+
+  /**
+   * Get the shard of the games starting with two moves.
+   */
+  public static int getShard(int move1, int move2) {
+    return SHARD_OF[move1 | (move2 << 4)];
+  }
+
+  /**
+   * Get the shards having a position: the shards of the openings with one of its computer stones and
+   * one of its person stones.
+   *
+   * @return bit mask of the shards, bit shard for a shard.
+   */
+  public static int getShards(int computerMask, int personMask) {
+    int shardMask = 0;
+    for (int computerMoves = computerMask; computerMoves != 0; computerMoves &= computerMoves - 1) {
+      int move1 = Integer.numberOfTrailingZeros(computerMoves) + 1;
+      for (int personMoves = personMask; personMoves != 0; personMoves &= personMoves - 1) {
+        shardMask |= 1 << getShard(move1, Integer.numberOfTrailingZeros(personMoves) + 1);
+      }
+    }
+    return shardMask;
+  }
+
+  /**
+   * The number of records of the lose records file the shards were derived from.
+   */
+  public int getRecordCount() {
+    return recordCount;
+  }
+
+  /**
+   * The lose positions of up to 4 moves, always loaded.
+   */
+  public LosePositionStore getOpeningStore() {
+    return openingStore;
+  }
+
+  public synchronized int getLoadedShardCount() {
+    return loadedShardCount;
+  }
+
+  /**
+   * The number of shards read from the file, again for a shard dropped and loaded again.
+   */
+  public synchronized int getLoadCount() {
+    return loadCount;
+  }
+
+  /**
+   * The bytes taken by the positions of the shards loaded.
+   */
+  public long getShardBytes() {
+    long bytes = 0;
+    for (int ii = 0; ii < SHARD_NUMBER; ii++) {
+      int[] positions = shards.get(ii);
+      if (positions != null) {
+        bytes += 4L * positions.length;
+      }
+    }
+    return bytes;
+  }
+
+  public int getLoseMoves(GameState state) {
+    int moveCount = state.getMoveCount();
+    if (moveCount < OPENING_MOVES) {
+      return openingStore.getLoseMoves(state);  //the next positions have up to 4 moves
+    }
+
+    int shard = SHARD_OF[(int) state.getHistory() & 0xFF];
+    int[] positions = shards.get(shard);
+    if (positions == null) {
+      positions = load(shard);
+    }
+    if (moveCount == OPENING_MOVES) {
+      lastUse.lazySet(shard, clock.incrementAndGet());  //the first lookup of a game in the shard
+    }
+
+    int positionIndex = state.getPositionIndex();
+    int digit = (moveCount % 2 == 0) ? 1 : 2;  //computer or person to move
+    int loseMoves = 0;
+    for (int moves = state.getFreeMoves(); moves != 0; moves &= moves - 1) {
+      int moveBit = moves & -moves;
+      int index = BoardSymmetry.getCanonicalPosition(positionIndex + digit * GameState.getPositionIndex(moveBit, 0));
+      if ( isSessionLose(index) || (Arrays.binarySearch(positions, index) >= 0) ) {
+        loseMoves |= moveBit;
+      }
+    }
+    return loseMoves;
+  }
+
+  private boolean isSessionLose(int index) {
+    return (sessionLoses.get(index >>> 6) & (1L << index)) != 0;
+  }
+
+  /**
+   * Add a lose position, and derive the shorter lose positions it completes, see
+   * LosePositionStore.add().  A position of 5 moves or more is marked in the session bit set, so
+   * all the shards having it see it, and one already lose is not added again.
+   *
+   * @return true if the position is new.
+   */
+  public synchronized boolean add(long history, int moveCount) {
+    int computerMask = 0;
+    int personMask = 0;
+    for (int ii = 0; ii < moveCount; ii++) {
+      int moveBit = 1 << (((int) (history >>> (4*ii)) & 0xF) - 1);
+      if (ii % 2 == 0) {
+        computerMask |= moveBit;
+      }
+      else {
+        personMask |= moveBit;
+      }
+    }
+
+    if (!mark(computerMask, personMask)) {
+      return false;
+    }
+    if (moveCount > OPENING_MOVES) {
+      derive(computerMask, personMask);  //the opening store derives its own positions
+    }
+    return true;
+  }
+
+  /**
+   * Check if a position is a lose for the side who moved last, in the opening store, the session
+   * bit set or a shard having it, loaded if none is.  Called under the lock.
+   */
+  private boolean isLose(int computerMask, int personMask) {
+    if (Integer.bitCount(computerMask | personMask) <= OPENING_MOVES) {
+      return openingStore.isLose(computerMask, personMask);
+    }
+    int index = BoardSymmetry.getCanonicalPosition(GameState.getPositionIndex(computerMask, personMask));
+    if (isSessionLose(index)) {
+      return true;
+    }
+
+    int shardMask = getShards(computerMask, personMask);
+    int[] positions = null;
+    for (int moves = shardMask; (moves != 0) && (positions == null); moves &= moves - 1) {
+      positions = shards.get(Integer.numberOfTrailingZeros(moves));
+    }
+    if (positions == null) {
+      positions = load(Integer.numberOfTrailingZeros(shardMask));
+    }
+    return Arrays.binarySearch(positions, index) >= 0;
+  }
+
+  /**
+   * Mark a position as a lose, in the opening store (which derives the shorter ones itself) or in the
+   * session bit set.  Called under the lock.
+   *
+   * @return true if the position is new.
+   */
+  private boolean mark(int computerMask, int personMask) {
+    if (Integer.bitCount(computerMask | personMask) <= OPENING_MOVES) {
+      return openingStore.add(computerMask, personMask);
+    }
+    if (isLose(computerMask, personMask)) {
+      return false;
+    }
+    int index = BoardSymmetry.getCanonicalPosition(GameState.getPositionIndex(computerMask, personMask));
+    sessionLoses.getAndAccumulate(index >>> 6, 1L << index, (word, bit) -> word | bit);
+    return true;
+  }
+
+  /**
+   * Derive the lose positions completed by a new lose position of 5 moves or more, the same way as
+   * LosePositionStore: for each move of the side who moved last, take the position before that move;
+   * if all the moves of the side from there are lose positions, every position one move of the other
+   * side before it is a lose position.  Called under the lock.
+   */
+  private void derive(int computerMask, int personMask) {
+    boolean computerMovedLast = Integer.bitCount(computerMask) > Integer.bitCount(personMask);
+    int moverMask = computerMovedLast ? computerMask : personMask;
+    int otherMask = computerMovedLast ? personMask : computerMask;
+    if (GameState.hasLine(moverMask) || GameState.hasLine(otherMask)) {
+      return;  //the game has ended already
+    }
+
+    for (int moverMoves = moverMask; moverMoves != 0; moverMoves &= moverMoves - 1) {
+      int beforeMoverMask = moverMask & ~(moverMoves & -moverMoves);
+      if ( (beforeMoverMask == 0) || !isAllLose(beforeMoverMask, otherMask, computerMovedLast) ) {
+        continue;
+      }
+
+      for (int otherMoves = otherMask; otherMoves != 0; otherMoves &= otherMoves - 1) {
+        int beforeOtherMask = otherMask & ~(otherMoves & -otherMoves);
+        int beforeComputerMask = computerMovedLast ? beforeMoverMask : beforeOtherMask;
+        int beforePersonMask = computerMovedLast ? beforeOtherMask : beforeMoverMask;
+        if ( mark(beforeComputerMask, beforePersonMask) &&
+             (Integer.bitCount(beforeComputerMask | beforePersonMask) > OPENING_MOVES) ) {
+          derive(beforeComputerMask, beforePersonMask);
+        }
+      }
+    }
+  }
+
+  /**
+   * Check if all the moves of a side from a position lead to a lose position.
+   */
+  private boolean isAllLose(int moverMask, int otherMask, boolean computerToMove) {
+    int freeMoves = ~(moverMask | otherMask) & GameState.ALL_MOVES;
+    for (int moves = freeMoves; moves != 0; moves &= moves - 1) {
+      int moveBit = moves & -moves;
+      boolean lose = computerToMove ? isLose(moverMask | moveBit, otherMask) :
+                                      isLose(otherMask, moverMask | moveBit);
+      if (!lose) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Load the positions of a shard from the file, dropping the shard started the least recently when
+   * maxShards shards are loaded already.
+   */
+  private synchronized int[] load(int shard) {
+    int[] positions = shards.get(shard);
+    if (positions != null) {
+      return positions;
+    }
+
+    try {
+      positions = readRegion(mapping, regionOffsets[shard + 1], regionCounts[shard + 1], regionCrcs[shard + 1]);
+    } catch (IOException e) {
+      throw new IllegalStateException("Cannot read the shard " + shard + " of " + file, e);
+    }
+
+    if (loadedShardCount >= maxShards) {
+      int coldShard = -1;
+      for (int ii = 0; ii < SHARD_NUMBER; ii++) {
+        if ( (shards.get(ii) != null) && ((coldShard < 0) || (lastUse.get(ii) < lastUse.get(coldShard))) ) {
+          coldShard = ii;
+        }
+      }
+      shards.set(coldShard, null);
+      loadedShardCount--;
+    }
+    lastUse.set(shard, clock.incrementAndGet());
+    shards.set(shard, positions);
+    loadedShardCount++;
+    loadCount++;
+    return positions;
+  }
+
+  /**
+   * Read the positions of a region, checked to be position indexes in increasing order.
+   */
+  private static int[] readRegion(ByteBuffer mapping, long offset, int count, int regionCrc) throws IOException {
+    if ( (offset < 0) || (count < 0) || (offset + count * 4L > mapping.capacity()) ) {
+      throw new EOFException("Truncated region at " + offset);
+    }
+    ByteBuffer region = mapping.duplicate().position((int) offset).limit((int) offset + count * 4);
+    CRC32 crc = new CRC32();
+    crc.update(region.duplicate());
+    if ((int) crc.getValue() != regionCrc) {
+      throw new IOException("Bad CRC32 of the region at " + offset);
+    }
+
+    int[] positions = new int[count];
+    region.asIntBuffer().get(positions);
+    for (int ii = 0; ii < count; ii++) {
+      if ( (positions[ii] < 0) || (positions[ii] >= GameState.POSITION_NUMBER) ||
+           ((ii > 0) && (positions[ii] <= positions[ii - 1])) ) {
+        throw new IOException("Bad position " + positions[ii] + " in the region at " + offset);
+      }
+    }
+    return positions;
+  }
+
+  /**
+   * Open the shards of a lose records file if they are still good for the file.  The file is memory
+   * mapped, and only the header, the index and the opening positions are read.
+   *
+   * @param maxShards the number of shards kept in memory at most.
+   * @return the store, or null if there are no shards, they are broken, or they are stale.
+   */
+  public static ShardedLoseStore open(String recordsFileName, int maxShards) throws IOException {
+    Path file = Paths.get(getFileName(recordsFileName));
+    Path source = Paths.get(recordsFileName);
+    if (!Files.exists(file) || !Files.exists(source)) {
+      return null;
+    }
+
+    MappedByteBuffer mapping;
+    FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+    try {
+      mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());  //valid after the close
+    } finally {
+      channel.close();
+    }
+    ByteBuffer buffer = mapping.duplicate();
+    int indexEnd = HEADER_SIZE + REGION_NUMBER * INDEX_ENTRY_SIZE + 4;
+    if ( (buffer.remaining() < indexEnd) || (buffer.getInt() != MAGIC) || (buffer.getShort() != VERSION) ) {
+      return null;
+    }
+    buffer.getShort();
+    long sourceLength = buffer.getLong();
+    int sourceCrc = buffer.getInt();
+    int recordCount = buffer.getInt();
+    if (buffer.getInt() != REGION_NUMBER) {
+      return null;
+    }
+    long[] regionOffsets = new long[REGION_NUMBER];
+    int[] regionCounts = new int[REGION_NUMBER];
+    int[] regionCrcs = new int[REGION_NUMBER];
+    for (int ii = 0; ii < REGION_NUMBER; ii++) {
+      regionOffsets[ii] = buffer.getLong();
+      regionCounts[ii] = buffer.getInt();
+      regionCrcs[ii] = buffer.getInt();
+    }
+    CRC32 crc = new CRC32();
+    crc.update(mapping.duplicate().position(0).limit(indexEnd - 4));
+    if (buffer.getInt() != (int) crc.getValue()) {
+      return null;
+    }
+
+    if ( (Files.size(source) != sourceLength) || (LosePositionSnapshot.checksum(source, sourceLength) != sourceCrc) ) {
+      return null;  //records appended too, their loses may be derived in any shard
+    }
+    LosePositionStore openingStore = new LosePositionStore();
+    try {
+      int[] openingPositions = readRegion(mapping, regionOffsets[0], regionCounts[0], regionCrcs[0]);
+      for (int ii = 0; ii < openingPositions.length; ii++) {
+        openingStore.add(GameState.getComputerMask(openingPositions[ii]), GameState.getPersonMask(openingPositions[ii]));
+      }
+    } catch (IOException e) {
+      return null;  //a broken opening region
+    }
+    return new ShardedLoseStore(file, mapping, regionOffsets, regionCounts, regionCrcs, recordCount, maxShards,
+                                openingStore);
+  }
+
+  /**
+   * Save the shards of a lose records file, from the lose positions derived from all of it.  The file
+   * must not be written while they are saved.  Nothing is saved if the file does not exist.
+   *
+   * @param recordCount the number of records of the file.
+   */
+  public static void save(String recordsFileName, LosePositionStore store, int recordCount) throws IOException {
+    Path source = Paths.get(recordsFileName);
+    if (!Files.exists(source)) {
+      return;
+    }
+    long sourceLength = Files.size(source);
+    int sourceCrc = LosePositionSnapshot.checksum(source, sourceLength);
+
+    int[] positions = store.getLosePositions();
+    int[][] regions = new int[REGION_NUMBER][positions.length];
+    int[] regionCounts = new int[REGION_NUMBER];
+    for (int ii = 0; ii < positions.length; ii++) {
+      int computerMask = GameState.getComputerMask(positions[ii]);
+      int personMask = GameState.getPersonMask(positions[ii]);
+      int moveCount = Integer.bitCount(computerMask | personMask);
+      if (moveCount <= OPENING_MOVES) {
+        regions[0][regionCounts[0]++] = positions[ii];
+      }
+      else {
+        for (int shardMask = getShards(computerMask, personMask); shardMask != 0; shardMask &= shardMask - 1) {
+          int region = Integer.numberOfTrailingZeros(shardMask) + 1;
+          regions[region][regionCounts[region]++] = positions[ii];
+        }
+      }
+    }
+
+    int indexEnd = HEADER_SIZE + REGION_NUMBER * INDEX_ENTRY_SIZE + 4;
+    int size = indexEnd;
+    for (int ii = 0; ii < REGION_NUMBER; ii++) {
+      size += regionCounts[ii] * 4;
+    }
+    ByteBuffer buffer = ByteBuffer.allocate(size);
+    buffer.putInt(MAGIC);
+    buffer.putShort(VERSION);
+    buffer.putShort((short) 0);
+    buffer.putLong(sourceLength);
+    buffer.putInt(sourceCrc);
+    buffer.putInt(recordCount);
+    buffer.putInt(REGION_NUMBER);
+    int offset = indexEnd;
+    for (int ii = 0; ii < REGION_NUMBER; ii++) {
+      ByteBuffer region = buffer.duplicate().position(offset);
+      region.asIntBuffer().put(regions[ii], 0, regionCounts[ii]);
+      CRC32 crc = new CRC32();
+      crc.update(buffer.array(), offset, regionCounts[ii] * 4);
+      buffer.putLong(offset);
+      buffer.putInt(regionCounts[ii]);
+      buffer.putInt((int) crc.getValue());
+      offset += regionCounts[ii] * 4;
+    }
+    CRC32 crc = new CRC32();
+    crc.update(buffer.array(), 0, buffer.position());
+    buffer.putInt((int) crc.getValue());
+
+    Path file = Paths.get(getFileName(recordsFileName)).toAbsolutePath();
+    Path tempFile = Files.createTempFile(file.getParent(), file.getFileName() + ".", ".tmp");
+    try {
+      try {
+        //the temporary file is only readable by its owner, the shards are readable as the records
+        Files.setPosixFilePermissions(tempFile, Files.getPosixFilePermissions(source));
+      } catch (UnsupportedOperationException e) {
+        //not a POSIX file system, the shard file keeps the default permissions
+      }
+      Files.write(tempFile, buffer.array());
+      Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(tempFile);
+    }
+  }
+}
@@ -0,0 +1,89 @@
+import java.util.SplittableRandom;
+
+/**
+ * StatisticsStrategy - Pick the move with the best results so far, learning from every game.
+ * <p>
+ * LearningStrategy only learns from its loses, and only avoids them.  This strategy counts the wins,
+ * ties and loses of each move from each position in MoveStatistics, so the wins and the ties teach
+ * it too.  The score of a move is its share of wins, a tie counting as half a win.
+ * <p>
+ * It explores the moves with one of two policies:<br>
+ * UCB, upper confidence bound: the score plus exploration * sqrt(ln(games of the position) / games
+ * of the move), so a move played less gets more chances, and a move never played is tried first.<br>
+ * EPSILON_GREEDY: a random move with the probability exploration, otherwise the best score, a move
+ * never played scoring 0.5.<br>
+ * With EPSILON_GREEDY and an exploration of 0, it only plays the best moves learned.
+ */
+public class StatisticsStrategy implements MoveStrategy {
+  public static final int UCB = 0;
+  public static final int EPSILON_GREEDY = 1;
+
+  private MoveStatistics statistics;
+  private SplittableRandom random;
+  private int policy;
+  private double exploration;
+  private boolean computerSide;
+
+  public StatisticsStrategy(MoveStatistics statistics, SplittableRandom random, int policy, double exploration) {
+    this.statistics = statistics;
+    this.random = random;
+    this.policy = policy;
+    this.exploration = exploration;
+    computerSide = true;
+  }
+
+  public int nextMove(GameState state) {
+    computerSide = (state.getMoveCount() % 2 == 0);
+    int freeMoves = state.getFreeMoves();
+    if ( (policy == EPSILON_GREEDY) && (random.nextDouble() < exploration) ) {
+      return GameState.nthMove(freeMoves, random.nextInt(Integer.bitCount(freeMoves)) + 1);
+    }
+
+    int positionIndex = state.getPositionIndex();
+    int positionGames = 0;
+    int untriedMoves = 0;
+    for (int moves = freeMoves; moves != 0; moves &= moves - 1) {
+      int move = Integer.numberOfTrailingZeros(moves) + 1;
+      int games = statistics.getGames(MoveStatistics.getSlot(positionIndex, move));
+      positionGames += games;
+      if (games == 0) {
+        untriedMoves |= 1 << (move-1);
+      }
+    }
+    if ( (policy == UCB) && (untriedMoves != 0) ) {
+      return GameState.nthMove(untriedMoves, random.nextInt(Integer.bitCount(untriedMoves)) + 1);
+    }
+
+    //the best score, a random one of the moves with the same score
+    double logGames = Math.log(Math.max(1, positionGames));
+    double bestScore = Double.NEGATIVE_INFINITY;
+    int bestMove = 0;
+    int bestCount = 0;
+    for (int moves = freeMoves; moves != 0; moves &= moves - 1) {
+      int move = Integer.numberOfTrailingZeros(moves) + 1;
+      int slot = MoveStatistics.getSlot(positionIndex, move);
+      int games = statistics.getGames(slot);
+      double score = (games == 0) ? 0.5 : (statistics.getWins(slot) + 0.5 * statistics.getTies(slot)) / games;
+      if (policy == UCB) {
+        score += exploration * Math.sqrt(logGames / games);
+      }
+
+      if (score > bestScore) {
+        bestScore = score;
+        bestMove = move;
+        bestCount = 1;
+      }
+      else if (score == bestScore) {
+        bestCount++;
+        if (random.nextInt(bestCount) == 0) {
+          bestMove = move;
+        }
+      }
+    }
+    return bestMove;
+  }
+
+  public void gameEnded(GameState state, int result) {
+    statistics.addGame(state, computerSide, result);
+  }
+}
@@ -1,4 +1,7 @@
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.Supplier;
 import java.io.*;
 
 /** 
@@ -10,98 +13,573 @@ import java.io.*;
  * There are many Tic Tac Toe program codes on the internet.  But this is not a copy of any of those.  It
  * is the result of about 10 hours work.
  * <p>
- * It uses a file "loserecords.txt" (can be changed in the main function) to store the lose records.  By
+ * It uses a file "loserecords.txt" (can be changed by the first argument) to store the lose records.  By
  * loading the lose records at the start of the game, it then calls getLosePatterns() to analyze the lose
  * records and get all the lose patterns.  The lose patterns are used to direct the computer not to repeat
- * the same lose.
+ * the same lose.  The lose records file can also be in a compact binary format, see LoseRecordFile.
  * <p>
  * To simplify the registration of the game moves, it uses one digit to record a move:
  * 1,1==>1, 1,2==>2, 1,3==>3, ..., x,y==>(x-1)*3+y
  * So that all the moves of one game at any point is a string with length not longer than 9.  
+ * During a game the moves are kept in a GameState, with one bit mask per side and the moves packed
+ * 4 bits each in a long, so checking a win or the free positions is a bit operation.
  * When a move is expressed in two digits like (2,1), it stands 2nd row and first column.
  * <p>
  * Each time when the computer makes a move, it uses a random# to pick from the available moves and 
- * avoid to repeat the same lose from the lose patterns.
+ * avoid to repeat the same lose from the lose patterns.  The lose patterns are kept by the positions
+ * they reach in a LosePositionStore, so a lose is avoided whatever the order of the moves reaching it.
  * <p>
- * The program also has a function personMoveSimulated() to simulate the person move by picking a random
- * move only.  When this function is used inside nextMove() instead of personMove(), it can simulate a
- * person playing randomly with the computer.  By calling th program repeatedly with this simulation, I
- * can generate a lose records file "loserecords.txt" with many loses.  And I can use the lose records to
- * decrease the lose of the computer.
+ * The moves of each side are picked by a MoveStrategy: "learning" (the computer by default), "random",
+ * "perfect" (see PerfectPlay), "human" (the person by default), "scripted:1,1;2,2;..." for a fixed
+ * list of moves, "stats" to learn from the results of all the games (see StatisticsStrategy), or
+ * "mcts" to search the moves with random games (see MonteCarloStrategy).  They are chosen with "--strategy" for the computer and "--person" for the person, and
+ * "--check-patterns" checks the lose patterns against PerfectPlay.
+ * <p>
+ * With "--person random" it can simulate a person playing randomly with the computer.  By calling th
+ * program repeatedly with this simulation, I can generate a lose records file "loserecords.txt" with many
+ * loses.  And I can use the lose records to decrease the lose of the computer.
+ * <p>
+ * The simulation can also be run in batch, without any output per move:<br>
+ * java TicTacToe --simulate 1000000 --threads 8 [loserecords.txt]<br>
+ * Each thread plays its games with its own random# generator and game state, and the loses learned by
+ * any thread are shared with all the other threads right away through the same LosePositionStore.
+ * Instead of random games, "--train" plays every game a person can play against the learning
+ * computer, until it has nothing left to learn (see ExhaustiveTrainer).
+ * <p>
+ * Many persons can play at the same time over the network with a game server (see GameServer):<br>
+ * java TicTacToe --server 7777 [--threads 4] [loserecords.txt]
+ * <p>
+ * With "--compact", the lose records file is first rewritten with the fewest records teaching the
+ * same loses, if it has grown large enough, and the old file is kept (see LoseRecordCompactor).
+ * <p>
+ * With "--shards N", the lose patterns are split by the first two moves of the games, and the ones
+ * of an opening are only loaded when a game reaches it, N openings in memory at most (see
+ * ShardedLoseStore).
+ * <p>
+ * Games running side by side, each with its own lose records file, share the loses they learn with
+ * "--replicate PORT" and "--peer host:port" (any number of them), or with "--spool DIR", see
+ * LoseRecordReplicator:<br>
+ * java TicTacToe --simulate 1000000 --replicate 7101 --peer localhost:7102 a.txt<br>
+ * java TicTacToe --simulate 1000000 --replicate 7102 --peer localhost:7101 b.txt
+ * <p>
+ * The engine counts its loads, lookups, games and move latencies in EngineMetrics, seen through JMX,
+ * and dumped every few seconds with "--metrics metrics.csv [--metrics-interval 10]" ("-" for the
+ * console).  The board is drawn by ConsoleRenderer, or not at all with "--quiet".
+ * <p>
+ * The game can also be played on a larger board, k in a row to win (see BoardGame):<br>
+ * java TicTacToe --board 15 --k 5 [--strategy mcts] [--simulate N]
  */
 public class TicTacToe {
   public static final int MAX_MOVE_NUMBER = 9;
+  public static final int COMPUTER_WIN = 1;
+  public static final int PERSON_WIN = -1;
+  public static final int TIE = 0;
+  public static final int MOVE_SAMPLE_RATE = 16;  //in batch mode, one computer move of 16 is timed
 
   private String loseRecordsFileName;
-  private String[] loseRecords;
-  private String[] losePatterns;
-  private String moveRecord;
+  private long[] loseRecords;
+  private int loseRecordCount;  //records in the file, also when started from the snapshot
+  private LosePositionStore losePositionStore;
+  private LosePatterns losePatterns;  //losePositionStore, or the shards of ShardedLoseStore
+  private GameState gameState;
   private boolean someoneWin;
-  private String[] ticTacToeEmpty = 
-                     {"   |   |   ",
-                      "---|---|---",
-                      "   |   |   ",
-                      "---|---|---",
-                      "   |   |   "};
-  private String[] ticTacToeShape; 
+  private SplittableRandom random;
+  private boolean batchMode;  //simulated person, no output
+  private String computerStrategyName;
+  private String personStrategyName;
+  private MoveStrategy computerStrategy;
+  private MoveStrategy personStrategy;
+  private LoseRecordLog loseRecordLog;
+  private MoveStatistics moveStatistics;  //loaded by the first statistics strategy
+  private EngineMetrics metrics;
+  private int moveSample;
+  private ConsoleRenderer renderer;
+  private LoseRecordReplicator replicator;  //null if the loses are not shared
 
 
   public static void main (String[] args) {
     //System.out.println("Hello World");
 
     String loseRecordsFile = "loserecords.txt";
-    TicTacToe ttt = new TicTacToe(loseRecordsFile);
-    ttt.play();
+    long simulateGames = 0;
+    int threads = Runtime.getRuntime().availableProcessors();
+    String computerStrategyName = "learning";
+    String personStrategyName = null;
+    boolean checkPatterns = false;
+    int serverPort = 0;
+    int fsyncPolicy = LoseRecordLog.FSYNC_INTERVAL;
+    int boardSize = 0;
+    int winLength = 0;
+    long bloomPositions = 0;
+    int maxShards = 0;
+    int replicatePort = 0;
+    List<String> peers = new ArrayList<String>();
+    String spoolDirectory = null;
+    String metricsFile = null;
+    boolean quiet = false;
+    boolean train = false;
+    boolean compact = false;
+    long seed = 0;
+    boolean seeded = false;
+    long metricsInterval = 10;
+    for (int ii = 0; ii < args.length; ii++) {
+      if (args[ii].equals("--simulate") && (ii + 1 < args.length)) {
+        simulateGames = Long.parseLong(args[++ii]);
+      }
+      else if (args[ii].equals("--threads") && (ii + 1 < args.length)) {
+        threads = Integer.parseInt(args[++ii]);
+      }
+      else if (args[ii].equals("--strategy") && (ii + 1 < args.length)) {
+        computerStrategyName = args[++ii];
+      }
+      else if (args[ii].equals("--person") && (ii + 1 < args.length)) {
+        personStrategyName = args[++ii];
+      }
+      else if (args[ii].equals("--server") && (ii + 1 < args.length)) {
+        serverPort = Integer.parseInt(args[++ii]);
+      }
+      else if (args[ii].equals("--fsync") && (ii + 1 < args.length)) {
+        fsyncPolicy = LoseRecordLog.parseFsyncPolicy(args[++ii]);  //always, interval or never
+      }
+      else if (args[ii].equals("--board") && (ii + 1 < args.length)) {
+        boardSize = Integer.parseInt(args[++ii]);
+      }
+      else if (args[ii].equals("--k") && (ii + 1 < args.length)) {
+        winLength = Integer.parseInt(args[++ii]);
+      }
+      else if (args[ii].equals("--bloom") && (ii + 1 < args.length)) {
+        bloomPositions = Long.parseLong(args[++ii]);  //lose positions expected on a board, see BoardLoseStore
+      }
+      else if (args[ii].equals("--replicate") && (ii + 1 < args.length)) {
+        replicatePort = Integer.parseInt(args[++ii]);  //the port the peers connect to, see LoseRecordReplicator
+      }
+      else if (args[ii].equals("--peer") && (ii + 1 < args.length)) {
+        peers.add(args[++ii]);  //host:port of another game
+      }
+      else if (args[ii].equals("--spool") && (ii + 1 < args.length)) {
+        spoolDirectory = args[++ii];  //a directory shared by the games
+      }
+      else if (args[ii].equals("--shards") && (ii + 1 < args.length)) {
+        maxShards = Integer.parseInt(args[++ii]);  //the openings loaded at most, see ShardedLoseStore
+      }
+      else if (args[ii].equals("--metrics") && (ii + 1 < args.length)) {
+        metricsFile = args[++ii];  //a CSV file, or "-" for the console
+      }
+      else if (args[ii].equals("--metrics-interval") && (ii + 1 < args.length)) {
+        metricsInterval = Long.parseLong(args[++ii]);
+      }
+      else if (args[ii].equals("--seed") && (ii + 1 < args.length)) {
+        seed = Long.parseLong(args[++ii]);
+        seeded = true;
+      }
+      else if (args[ii].equals("--train")) {
+        train = true;  //every game against the learning computer, see ExhaustiveTrainer
+      }
+      else if (args[ii].equals("--quiet")) {
+        quiet = true;  //no board drawn, see ConsoleRenderer
+      }
+      else if (args[ii].equals("--compact")) {
+        compact = true;  //rewrite the lose records file with the fewest records first
+      }
+      else if (args[ii].equals("--check-patterns")) {
+        checkPatterns = true;
+      }
+      else {
+        loseRecordsFile = args[ii];  //a text or a binary lose records file, see LoseRecordFile
+      }
+    }
+
+    if (personStrategyName == null) {
+      personStrategyName = (simulateGames > 0) ? "random" : "human";
+    }
+
+    if (boardSize > 0) {
+      //a board of any size, the lose positions learned are kept in memory only, see BoardGame
+      BoardGame game = new BoardGame(boardSize, (winLength > 0) ? winLength : Math.min(boardSize, 5), bloomPositions);
+      game.setComputerStrategy(computerStrategyName);
+      game.setPersonStrategy(personStrategyName);
+      if (simulateGames > 0) {
+        game.simulate(simulateGames, threads);
+      }
+      else {
+        game.play();
+      }
+      return;
+    }
+
+    //checking, training and compacting go through all the lose patterns, so they are not sharded
+    final TicTacToe ttt = new TicTacToe(loseRecordsFile, (checkPatterns || train || compact) ? 0 : maxShards);
+    ttt.setFsyncPolicy(fsyncPolicy);
+    if (compact) {
+      ttt.compactLoseRecords();
+    }
+    Runtime.getRuntime().addShutdownHook(new Thread(ttt::close));  //also when the server is stopped
+    ttt.setComputerStrategy(computerStrategyName);
+    ttt.setPersonStrategy(personStrategyName);
+    if (seeded) {
+      ttt.setSeed(seed);
+    }
+    ttt.renderer.setQuiet(quiet);
+    ttt.metrics.register();
+    if ( (replicatePort > 0) || !peers.isEmpty() || (spoolDirectory != null) ) {
+      try {
+        ttt.startReplication(replicatePort, peers, spoolDirectory);
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+    if (metricsFile != null) {
+      try {
+        ttt.metrics.startDump(metricsFile, metricsInterval);
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+    if (checkPatterns) {
+      PerfectPlay.checkLosePositions(ttt.losePositionStore);
+    }
+    else if (train) {
+      ttt.train(threads);
+    }
+    else if (simulateGames > 0) {
+      ttt.simulate(simulateGames, threads);
+    }
+    else if (serverPort > 0) {
+      try {
+        new GameServer(ttt, serverPort, threads).run();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+    else {
+      ttt.play();
+    }
   }
 
 /**
  * Init of the game.  
  * <p>
  * It calls init() for the following:<br>
- * loadLoseRecords(), Load the lose records from a text file.<br>
+ * loadSnapshot(), Start from the snapshot of the lose patterns, learning only the records added since.<br>
+ * Without a good snapshot:<br>
+ * loadLoseRecords(), Load the lose records from a text file, after recovering the log of the last run.<br>
  * getLosePatterns(), Analyze the lose records, and get all the lose patterns for the computer to use.
  */
   public TicTacToe(String loseRecordsFile) {
+    this(loseRecordsFile, 0);
+  }
+
+  /**
+   * Init of the game, with the lose patterns split into shards by the opening, at most maxShards of
+   * them loaded, see ShardedLoseStore.  The shards are saved again from all the lose patterns when
+   * the lose records file has changed.  With maxShards 0, all the lose patterns are loaded.
+   */
+  public TicTacToe(String loseRecordsFile, int maxShards) {
     loseRecordsFileName = loseRecordsFile;
-    loseRecords = new String[0];
-    losePatterns = new String[0];
+    loseRecords = new long[0];
+    losePositionStore = new LosePositionStore();
     if (loseRecordsFileName == null || loseRecordsFileName.trim().equals("")) {
       loseRecordsFileName = "loserecords.txt";
     }
-    moveRecord = "";
+    gameState = new GameState();
     someoneWin = false;
-    init();
+    random = new SplittableRandom();
+    batchMode = false;
+    metrics = new EngineMetrics();
+    renderer = new ConsoleRenderer(ConsoleRenderer.createOutput());
+    init(maxShards);
+    try {
+      loseRecordLog = new LoseRecordLog(loseRecordsFileName, LoseRecordLog.FSYNC_INTERVAL);
+    } catch (IOException e) {
+      throw new IllegalStateException("Cannot open the log of " + loseRecordsFileName, e);
+    }
+    setComputerStrategy("learning");
+    setPersonStrategy("human");
+  }
+
+  /**
+   * Set when the log of the lose records is forced to the disk, see LoseRecordLog.
+   */
+  public void setFsyncPolicy(int fsyncPolicy) {
+    loseRecordLog.setFsyncPolicy(fsyncPolicy);
+  }
+
+  /**
+   * Save the lose records still waiting in the log into the lose records file.  The games sharing
+   * the log can not save any lose after it.
+   */
+  public void close() {
+    renderer.flush();
+    metrics.stopDump();
+    if (replicator != null) {
+      replicator.close();  //no lose received after the log is closed
+    }
+    loseRecordLog.close();
+    if (moveStatistics != null) {
+      try {
+        moveStatistics.save(getStatisticsFileName());
+      } catch (IOException e) {
+        throw new IllegalStateException("Cannot save the move statistics", e);
+      }
+    }
   }
 
-  private void init() {
-    resetTicTacToeShape();
-    loadLoseRecords();
-    getLosePatterns();
+  /**
+   * Start the random# generator again from a seed, so the same games are played again.  The
+   * strategies are created again with it.  The games of simulate() on one thread are the same for
+   * the same seed and lose records; on several threads they also depend on when each thread learns
+   * the loses of the others, use Tournament to compare learning runs.
+   */
+  public void setSeed(long seed) {
+    random = new SplittableRandom(seed);
+    setComputerStrategy(computerStrategyName);
+    setPersonStrategy(personStrategyName);
+  }
+
+  /**
+   * Set the strategy of the computer by its name, see createStrategy().
+   */
+  public void setComputerStrategy(String strategyName) {
+    computerStrategyName = strategyName;
+    computerStrategy = createStrategy(strategyName);
   }
 
-  private void resetTicTacToeShape() {
-    ticTacToeShape = new String[ticTacToeEmpty.length];
-    for (int ii=0; ii<ticTacToeEmpty.length;ii++) {
-      ticTacToeShape[ii] = ticTacToeEmpty[ii];
+  /**
+   * Set the strategy of the person by its name, see createStrategy().
+   */
+  public void setPersonStrategy(String strategyName) {
+    personStrategyName = strategyName;
+    personStrategy = createStrategy(strategyName);
+  }
+
+  /**
+   * Create a strategy by its name, see createStrategy(String, LosePatterns, ...), or "human".  In
+   * batch mode there is nobody to enter the moves, so "human" plays random moves.
+   */
+  private MoveStrategy createStrategy(String strategyName) {
+    if (strategyName.equals("human")) {
+      if (batchMode) {
+        return new RandomStrategy(random);
+      }
+      return new HumanStrategy(new BufferedReader(new InputStreamReader(System.in)), renderer.getOutput());
     }
+    return createStrategy(strategyName, losePatterns, this::getMoveStatistics, random, metrics);
+  }
+
+  /**
+   * Create a strategy playing by itself by its name: "learning" on the lose patterns, "random",
+   * "perfect", "scripted:" followed by the moves as "row#,col#" separated by ";", or "stats" with the
+   * UCB policy, "stats:ucb=<c>" or "stats:epsilon=<e>" on the move statistics, or "mcts" with the
+   * default budget or "mcts:" followed by the options of MonteCarloStrategy.  The games and
+   * Tournament both create their strategies here.
+   *
+   * @param moveStatistics the move statistics, only asked for by a statistics strategy.
+   * @throws IllegalArgumentException if the name or its options are not known.
+   */
+  static MoveStrategy createStrategy(String strategyName, LosePatterns losePatterns,
+                                     Supplier<MoveStatistics> moveStatistics, SplittableRandom random,
+                                     EngineMetrics metrics) {
+    if (strategyName.equals("learning")) {
+      return new LearningStrategy(losePatterns, random, metrics);
+    }
+    else if (strategyName.equals("random")) {
+      return new RandomStrategy(random);
+    }
+    else if (strategyName.equals("perfect")) {
+      return new PerfectPlayStrategy(random);
+    }
+    else if (strategyName.startsWith("scripted:")) {
+      return ScriptedStrategy.parse(strategyName.substring("scripted:".length()));
+    }
+    else if (strategyName.equals("stats")) {
+      return new StatisticsStrategy(moveStatistics.get(), random, StatisticsStrategy.UCB, Math.sqrt(2));
+    }
+    else if (strategyName.startsWith("stats:ucb=")) {
+      return new StatisticsStrategy(moveStatistics.get(), random, StatisticsStrategy.UCB,
+                                    Double.parseDouble(strategyName.substring("stats:ucb=".length())));
+    }
+    else if (strategyName.startsWith("stats:epsilon=")) {
+      return new StatisticsStrategy(moveStatistics.get(), random, StatisticsStrategy.EPSILON_GREEDY,
+                                    Double.parseDouble(strategyName.substring("stats:epsilon=".length())));
+    }
+    else if (strategyName.equals("mcts") || strategyName.startsWith("mcts:")) {
+      return MonteCarloStrategy.parse(strategyName.substring(Math.min(strategyName.length(), "mcts:".length())), random);
+    }
+    throw new IllegalArgumentException("Unknown strategy: " + strategyName);
+  }
+
+  /**
+   * The move statistics of the statistics strategies, loaded from the snapshot next to the lose
+   * records file the first time, and saved by close().
+   */
+  private MoveStatistics getMoveStatistics() {
+    if (moveStatistics == null) {
+      try {
+        moveStatistics = MoveStatistics.load(getStatisticsFileName());
+      } catch (IOException e) {
+        e.printStackTrace();
+        moveStatistics = new MoveStatistics();
+      }
+    }
+    return moveStatistics;
+  }
+
+  private String getStatisticsFileName() {
+    return loseRecordsFileName + ".stats";
+  }
+
+  /**
+   * A game playing in batch mode, sharing the lose records file and the lose patterns of another game.
+   * It is used by the threads of simulate() and by the sessions of GameServer.
+   */
+  TicTacToe(TicTacToe shared, SplittableRandom gameRandom) {
+    loseRecordsFileName = shared.loseRecordsFileName;
+    loseRecords = shared.loseRecords;
+    loseRecordCount = shared.loseRecordCount;
+    losePositionStore = shared.losePositionStore;
+    losePatterns = shared.losePatterns;
+    loseRecordLog = shared.loseRecordLog;
+    moveStatistics = shared.moveStatistics;
+    metrics = shared.metrics;
+    renderer = shared.renderer;
+    replicator = shared.replicator;
+    gameState = new GameState();
+    someoneWin = false;
+    random = gameRandom;
+    batchMode = true;
+    setComputerStrategy(shared.computerStrategyName);
+    setPersonStrategy(shared.personStrategyName);
+  }
+
+  private void init(int maxShards) {
+    long startTime = System.nanoTime();
+    ShardedLoseStore shardedStore = (maxShards > 0) ? openShards(maxShards) : null;
+    if (shardedStore == null) {
+      boolean loaded = loadSnapshot();
+      if (!loaded) {
+        loaded = loadLoseRecords();
+        getLosePatterns();
+        loseRecordCount = loseRecords.length;
+        if (loaded) {
+          saveSnapshot();
+        }
+      }
+      //a failed load plays on with what it has, but it must not be saved as the file's snapshot
+      if (loaded && maxShards > 0) {
+        saveShards();
+        shardedStore = openShards(maxShards);
+      }
+    }
+
+    if (shardedStore != null) {
+      losePatterns = shardedStore;
+      loseRecordCount = shardedStore.getRecordCount();
+      metrics.loaded((System.nanoTime() - startTime) / 1000000, loseRecordCount, shardedStore.getOpeningStore());
+    }
+    else {
+      losePatterns = losePositionStore;
+      metrics.loaded((System.nanoTime() - startTime) / 1000000, loseRecordCount, losePositionStore);
+    }
+  }
+
+  /**
+   * Open the shards of the lose patterns, after recovering the log of the last run.
+   *
+   * @return null if there are no good shards for the lose records file.
+   */
+  private ShardedLoseStore openShards(int maxShards) {
+    try {
+      LoseRecordLog.recover(loseRecordsFileName);
+      return ShardedLoseStore.open(loseRecordsFileName, maxShards);
+    } catch (IOException e) {
+      e.printStackTrace();
+      return null;
+    }
+  }
+
+  /**
+   * Save the shards of the lose patterns learned from the whole lose records file, see saveSnapshot().
+   */
+  private void saveShards() {
+    try {
+      ShardedLoseStore.save(loseRecordsFileName, losePositionStore, loseRecordCount);
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Start from the snapshot of the lose patterns (see LosePositionSnapshot), and learn only the
+   * records appended to the lose records file after it was saved.  The snapshot is saved again if
+   * any record was appended.
+   *
+   * @return false if there is no good snapshot, and the whole file must be loaded.
+   */
+  private boolean loadSnapshot() {
+    try {
+      LoseRecordLog.recover(loseRecordsFileName);  //the loses of the last run go to the file first
+      LosePositionSnapshot snapshot = LosePositionSnapshot.load(loseRecordsFileName);
+      if (snapshot == null) {
+        return false;
+      }
+
+      final LosePositionStore store = snapshot.getStore();
+      final int[] appendedCount = new int[1];
+      LoseRecordFile.stream(loseRecordsFileName, snapshot.getSourceLength(), record -> {
+        if (LoseRecordFile.isValidRecord(record)) {
+          store.add(record, LoseRecordFile.getMoveCount(record) - 1);
+          appendedCount[0]++;
+        }
+      });
+      losePositionStore = store;
+      loseRecordCount = snapshot.getRecordCount() + appendedCount[0];
+      if (appendedCount[0] > 0) {
+        saveSnapshot();
+      }
+      return true;
+    } catch (IOException e) {
+      e.printStackTrace();
+      return false;
+    }
+  }
+
+  /**
+   * Save the snapshot of the lose patterns learned from the whole lose records file.  It is called
+   * when the file is not being written, before loseRecordLog appends to it.
+   */
+  private void saveSnapshot() {
+    try {
+      LosePositionSnapshot.save(loseRecordsFileName, losePositionStore, loseRecordCount);
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * The metrics of the games, shared by all the games of simulate() and GameServer, see EngineMetrics.
+   */
+  public EngineMetrics getMetrics() {
+    return metrics;
   }
 
   /** 
    * Play one game with the computer.
    * <p>
-   * The game moves are recorded in String moveRecord.  It is analyzed by isGameEnded() after each move
+   * The game moves are recorded in GameState gameState.  It is checked by isGameEnded() after each move
    * to decide if one side wins.  The game also ends when 9 moves are played.
    * <p>
    * It calls nextMove() to do each move.  This function then calls computerMove() or personMove() to 
-   * do the move by computer or by person.
+   * do the move by computer or by person, each with its MoveStrategy.  The lose record is saved when
+   * the side losing the game is learning.
    */
   public void play() {
     int ii = 0;
+    PrintStream output = renderer.getOutput();
 
-    System.out.println("****************************************************************");
-    System.out.println("Play game: a move is expressed as \"row#,col#\", such as \"1,2\"");
-    System.out.println("Computer: X   Person: O");
-    System.out.println("****************************************************************");
+    output.println("****************************************************************");
+    output.println("Play game: a move is expressed as \"row#,col#\", such as \"1,2\"");
+    output.println("Computer: X   Person: O");
+    output.println("****************************************************************");
     while(!isGameEnded()) {
       if (ii >= MAX_MOVE_NUMBER) {
 	break;
@@ -111,67 +589,244 @@ public class TicTacToe {
       ii++;
     }
 
+    int result = endGame();
+    if (result == PERSON_WIN) {
+      output.println("Person Wins!");
+    }
+    else if (result == COMPUTER_WIN) {
+      output.println("Computer Wins!");
+    }
+    else {
+      output.println("Tie!");
+    }
+    renderer.flush();
+
+  }
+
+  /**
+   * Play one game in batch mode, without any output.
+   *
+   * @return COMPUTER_WIN, PERSON_WIN or TIE.
+   */
+  private int playSimulated() {
+    gameState.reset();
+    someoneWin = false;
+
+    while(!isGameOver()) {
+      if (gameState.getMoveCount() % 2 == 0) {
+        computerMove();
+      }
+      else {
+        personMove();
+      }
+    }
+
+    return endGame();
+  }
+
+  /**
+   * Start a game played move by move from outside, such as a session of GameServer, and play the
+   * first computer move.
+   *
+   * @return the computer move.
+   */
+  int startGame() {
+    gameState.reset();
+    someoneWin = false;
+    computerMove();
+    return gameState.getMove(gameState.getMoveCount() - 1);
+  }
+
+  /**
+   * Play a person move of a game started by startGame(), and the computer move after it if the game
+   * is not over yet.
+   *
+   * @return the computer move, or 0 if the game is over after the person move.
+   */
+  int playPersonMove(int move) {
+    gameState.play(move);
+    if (isGameOver()) {
+      return 0;
+    }
+    computerMove();
+    return gameState.getMove(gameState.getMoveCount() - 1);
+  }
+
+  GameState getGameState() {
+    return gameState;
+  }
+
+  /**
+   * Check if the game is over: one side wins or all the moves are played.
+   */
+  boolean isGameOver() {
+    return isGameEnded() || (gameState.getMoveCount() >= MAX_MOVE_NUMBER);
+  }
+
+  /**
+   * Get the result of a game over, save the lose record if the side losing is learning, and tell
+   * both strategies the result.  It is called once at the end of each game.
+   *
+   * @return COMPUTER_WIN, PERSON_WIN or TIE.
+   */
+  int endGame() {
+    int result = TIE;
     if (isPersonWin()) {
-      System.out.println("Person Wins!");
-      saveLoseRecord();
+      if (computerStrategy instanceof LearningStrategy) {
+        saveLoseRecord();
+      }
+      result = PERSON_WIN;
     }
     else if (isComputerWin()) {
-      System.out.println("Computer Wins!");
+      if (personStrategy instanceof LearningStrategy) {
+        saveLoseRecord();
+      }
+      result = COMPUTER_WIN;
+    }
+
+    computerStrategy.gameEnded(gameState, result);
+    personStrategy.gameEnded(gameState, result);
+    metrics.gameEnded(result);
+    return result;
+  }
+
+  /**
+   * Play many games in batch, on several threads.
+   * <p>
+   * Each thread plays with its own game state, strategies and random# generator, split from one
+   * generator.  All the threads share losePositionStore, so a lose saved by one thread is avoided by
+   * all of them.
+   */
+  public void simulate(long gameNumber, int threadNumber) {
+    final AtomicLong gamesLeft = new AtomicLong(gameNumber);
+    final LongAdder computerWins = new LongAdder();
+    final LongAdder personWins = new LongAdder();
+    final LongAdder ties = new LongAdder();
+    int positionsBefore = losePositionStore.size();
+    long startTime = System.nanoTime();
+
+    ExecutorService executor = Executors.newFixedThreadPool(threadNumber);
+    for (int ii = 0; ii < threadNumber; ii++) {
+      final TicTacToe game = new TicTacToe(this, random.split());
+      executor.execute(() -> {
+        while (gamesLeft.getAndDecrement() > 0) {
+          int result = game.playSimulated();
+          if (result == COMPUTER_WIN) {
+            computerWins.increment();
+          }
+          else if (result == PERSON_WIN) {
+            personWins.increment();
+          }
+          else {
+            ties.increment();
+          }
+        }
+      });
+    }
+    executor.shutdown();
+    try {
+      executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    long elapsedMillis = Math.max(1, (System.nanoTime() - startTime) / 1000000);
+    System.out.println("Simulated " + gameNumber + " games on " + threadNumber + " threads in " +
+                       elapsedMillis + " ms (" + (gameNumber * 1000 / elapsedMillis) + " games/s)");
+    System.out.println("Computer wins: " + computerWins.sum() + ", Person wins: " + personWins.sum() +
+                       ", Ties: " + ties.sum());
+    if (losePatterns == losePositionStore) {
+      System.out.println("Lose positions learned: " + (losePositionStore.size() - positionsBefore));
     }
     else {
-      System.out.println("Tie!");
+      ShardedLoseStore shardedStore = (ShardedLoseStore) losePatterns;
+      System.out.println("Lose records saved: " + metrics.getLoseRecordsSaved() + ", shards loaded: " +
+                         shardedStore.getLoadCount());
     }
+    System.out.println("Computer move latency: p50 " + metrics.getMoveLatencyP50Nanos() + " ns, p99 " +
+                       metrics.getMoveLatencyP99Nanos() + " ns, max " + metrics.getMoveLatencyMaxNanos() + " ns");
+  }
 
+  /**
+   * Train the learning computer against every possible person, pass after pass over the whole game
+   * tree until a pass finds no new lose (see ExhaustiveTrainer).  The loses found are saved to the
+   * lose records file the same way as the loses of the games.
+   */
+  public void train(int threadNumber) {
+    ForkJoinPool pool = new ForkJoinPool(threadNumber);
+    ExhaustiveTrainer trainer = new ExhaustiveTrainer(losePositionStore, record -> {
+      loseRecordLog.add(record);
+      metrics.loseRecordSaved();
+      if (replicator != null) {
+        replicator.publish(record);
+      }
+    }, pool);
+    int positionsBefore = losePositionStore.size();
+    long startTime = System.nanoTime();
+
+    int pass = 0;
+    long newLoses;
+    do {
+      long passStartTime = System.nanoTime();
+      newLoses = trainer.runPass();
+      pass++;
+      System.out.println("Pass " + pass + ": " + trainer.getLastNodeCount() + " positions, " +
+                         trainer.getLastLoseCount() + " loses, " + newLoses + " new loses in " +
+                         (System.nanoTime() - passStartTime) / 1000000 + " ms");
+    } while (newLoses > 0);
+    pool.shutdown();
+
+    System.out.println("Trained in " + pass + " passes on " + threadNumber + " threads in " +
+                       (System.nanoTime() - startTime) / 1000000 + " ms");
+    System.out.println("Lose positions learned: " + (losePositionStore.size() - positionsBefore) +
+                       ", lose positions: " + losePositionStore.size());
   }
 
-  private void loadLoseRecords() {	  
-    String myline, myMove;
-    int moveX, moveY;
-    String oneMoveRecord;
-    int recordCount = 0;
+  /**
+   * Load the lose records, from a text or a binary file (see LoseRecordFile).
+   * <p>
+   * The records are kept packed in longs, in the canonical form of BoardSymmetry, and the duplicate
+   * records and the broken records are removed.
+   *
+   * @return true if the records are loaded, or there is no records file yet; false if it failed,
+   * leaving no records, which must not be saved as the snapshot of the file.
+   */
+  private boolean loadLoseRecords() {
+    long[] records;
     int idx = 0;
 
-    loseRecords = new String[0];
+    loseRecords = new long[0];
 
     try {
-      BufferedReader br = new BufferedReader(new FileReader(loseRecordsFileName));
-      recordCount = 0;
-      while((myline = br.readLine()) != null) {
-        recordCount++;
+      //the loses of the last run still in the log, if it has crashed, go to the file first
+      LoseRecordLog.recover(loseRecordsFileName);
+      records = LoseRecordFile.read(loseRecordsFileName);
+
+      //keep one canonical record for a record and all its rotations and reflections
+      for (int ii=0; ii<records.length; ii++) {
+        if (!LoseRecordFile.isValidRecord(records[ii])) {
+          records[ii] = 0L;  //a broken record, such as a position taken twice, is dropped
+          continue;
+        }
+        records[ii] = BoardSymmetry.canonical(records[ii], LoseRecordFile.getMoveCount(records[ii]));
       }
-      br.close();
-      loseRecords = new String[recordCount];
-
-      br = new BufferedReader(new FileReader(loseRecordsFileName));
+      Arrays.sort(records);
       idx = 0;
-      while((myline = br.readLine()) != null) {
-	oneMoveRecord = "";
-	while(!(myline.trim().equals(""))) {
-	  int bra, ket;
-	  bra = myline.indexOf("(");
-	  ket = myline.indexOf(")");
-	  myMove = myline.substring(bra+1, ket);
-	  myline = myline.substring(ket+1);
-
-	  moveX=Integer.parseInt(myMove.substring(0, myMove.indexOf(",")).trim());
-          moveY=Integer.parseInt(myMove.substring(myMove.indexOf(",") + 1).trim());
-
-	  oneMoveRecord += String.valueOf((moveX-1)*3+moveY);
-	}
-	loseRecords[idx] = oneMoveRecord;
-	idx++;
-      }
-      br.close();
+      for (int ii=0; ii<records.length; ii++) {
+        if ( (records[ii] != 0L) && ((idx == 0) || (records[ii] != records[idx-1])) ) {
+          records[idx] = records[ii];
+          idx++;
+        }
+      }
+      loseRecords = Arrays.copyOf(records, idx);
     } catch (java.io.FileNotFoundException e) {
       //do nothing if the lose records file not existing.  It might be the first time to run it.
     } catch (Exception e) {
       e.printStackTrace();
+      loseRecords = new long[0];
+      return false;
     }
-
-//    System.out.println("Lose Records retrieved:");
-//    for (int ii=0; ii<loseRecords.length; ii++) {
-//      System.out.println(loseRecords[ii]);
-//    }
+    return true;
   }
 
   /** 
@@ -184,339 +839,164 @@ public class TicTacToe {
    * means that when the person takes the 6th step, the computer will definitely lose again
    * since the computer only has 3 choices at 7th step (only 3 spaces left).  Therefore, we can
    * treat the same 6-step as a lose record.  By dropping the last person move, we get another
-   * 5-step lose pattern.  We add to lose pattern array if it does not exist.
+   * 5-step lose pattern.
+   * <p>
+   * The lose patterns are kept by the positions they reach, and the shorter lose patterns are derived
+   * by losePositionStore each time a pattern is added, around the new position only (see
+   * LosePositionStore.add()).  So loading the records costs one add per record, and a lose saved by
+   * saveLoseRecord() is learned with all its derived patterns in the same session.
    */
   private void getLosePatterns() {
-    int losePatternsCount = 0;
-    losePatterns = new String[loseRecords.length*2];
+    losePositionStore = new LosePositionStore();
     for (int ii=0; ii<loseRecords.length;ii++) {
-      losePatterns[ii] = loseRecords[ii].substring(0, loseRecords[ii].length() - 1);
-    }
-    losePatternsCount = loseRecords.length;
-
-//    System.out.println("Lose Patterns retrieved:");
-//    for (int ii=0; ii<losePatternsCount; ii++) {
-//      System.out.println(losePatterns[ii]);
-//    }
-
-    //check patterns with fixed length for new pattern.
-    //From losePatterns[] with length 7, we get the counts of all instances having the same first 6
-    //char (moves).  If we have 3 of those, then the person can always repeat the win if the computer
-    //take the moves up to move #5 with the same moves.  Therefore, the first 5 moves constitute a
-    //lose pattern--which can lead to the same lose.  So we do:
-    //losePatterns[] with length 7==>more losePatterns[] with length 5
-    //losePatterns[] with length 5==>more losePatterns[] with length 3
-    for (int ii=7; ii>=3; ii-=2) { 
-      //Count lose patterns with a specific length to construct the array to be used
-      int countSpecificLengthPattern = 0;
-      for (int jj=0; jj<losePatternsCount; jj++) {
-        if ( (losePatterns[jj] != null) &&
-	     (losePatterns[jj].length() == ii) ) {
-	  countSpecificLengthPattern++;
-	}
-      }
-      if (countSpecificLengthPattern < 3) {
-	continue;
-      }	
-
-      //newPattern is used to count how many lose patterns we have for a certain lose pattern
-      //with the same moves up to the last person move
-      //For example: for a lose pattern with 7-step, we count how many patterns we have for the 
-      //same 6-steps, storing the 6-step pattern in newPattern[] and the count in newPatternCount[]
-      String[] newPattern = new String[countSpecificLengthPattern];
-      int[] newPatternCount = new int[countSpecificLengthPattern];
-      countSpecificLengthPattern = 0;
-      for (int jj=0; jj<losePatternsCount; jj++) {
-        if ( (losePatterns[jj] != null) &&
-	     (losePatterns[jj].length() == ii) ) {
-	  String tmpPattern = losePatterns[jj].substring(0, ii-1);
-	  boolean repeated = false;
-	  for (int kk=0; kk < countSpecificLengthPattern; kk++) {
-	    if (newPattern[kk].equals(tmpPattern)) {
-	      newPatternCount[kk] = newPatternCount[kk] + 1;
-	      repeated = true;
-	      break;
-	    }
-	  }
-	  if (!repeated) {
-	    newPattern[countSpecificLengthPattern] = losePatterns[jj].substring(0, ii-1);
-            newPatternCount[countSpecificLengthPattern] = 1;
-	    countSpecificLengthPattern++;
-	  }
-	}
-      }
-      
-      //adding new lose patterns
-      //For a specific newPattern[], if newPatternCount[] equal to # of possibilities, we get a
-      //new lose pattern.
-      //For example: for a 7-step losePatterns[], we have a 6-step newPattern[], if the newPatternCount[]
-      //for this newPattern[] is 3 (=9-7+1), we get a new losePatterns[] using the first 5 digits of
-      //the newPattern[]
-      for (int jj=0; jj<countSpecificLengthPattern; jj++) {
-	//System.out.println("Pattern: " + newPattern[jj] + ", Count=" + newPatternCount[jj]);
-	if (newPatternCount[jj] == (9-ii+1) ) {
-	  //got a new lose pattern
-          losePatterns[losePatternsCount] = newPattern[jj].substring(0,ii-2);
-          //System.out.println("Add new lose pattern:" + losePatterns[losePatternsCount]);
-          losePatternsCount++;
-	}
-      }
+      losePositionStore.add(loseRecords[ii], LoseRecordFile.getMoveCount(loseRecords[ii]) - 1);
     }
   }
 
-  private void saveLoseRecord() {
-    int[] moveX = new int[9];
-    int[] moveY = new int[9];
-    String saveLine = "";
-    String saveLineCombined = "";
-    int tempNum = 0;
-
-    //System.out.println("\n\n=========================\nSave lose record");
-    //Get move coordinates from moveRecord
-    for (int ii = 0; ii < moveRecord.length(); ii++) {
-      int move = Integer.parseInt(moveRecord.substring(ii, ii+1));
-      moveX[ii] = (move - ((move - 1) % 3)) / 3 + 1;
-      moveY[ii] = (move - 1) % 3 + 1;
-      //System.out.print("(" + moveX[ii] + "," + moveY[ii] + ") ");
+  /**
+   * Rewrite the lose records file with the fewest records teaching the same loses, when it has grown
+   * LoseRecordCompactor.COMPACT_RATIO times larger than needed.  So the file and the time to load it
+   * stop growing with the games played.  The records replaced are kept in the backup file, see
+   * LoseRecordCompactor.write().
+   * <p>
+   * It is only called with "--compact", when the game starts, before any lose is saved, since
+   * loseRecordLog appends to the file.
+   */
+  public void compactLoseRecords() {
+    if (losePatterns != losePositionStore) {
+      return;  //the shards do not load all the lose patterns
+    }
+    long[] minimalRecords = LoseRecordCompactor.getMinimalRecords(losePositionStore);
+    if (loseRecordCount < LoseRecordCompactor.COMPACT_RATIO * Math.max(1, minimalRecords.length)) {
+      return;
     }
 
     try {
-      BufferedWriter bw = new BufferedWriter(new FileWriter(loseRecordsFileName, true));  //append
-      for (int jj=0; jj < 4; jj++) {
-	if (jj!=0) { //rotate 90 degree, with origin at center: (x,y)==>(-y,x), rotate 90 degree a time for 3 times
-	  for (int ii = 0; ii < moveRecord.length(); ii++) {
-	    tempNum = moveX[ii];
-            moveX[ii] = -(moveY[ii]-2) + 2; //To get coordinate by center, need to "-2".  After rotate, shift back by "+2".
-            moveY[ii] = (tempNum-2) + 2;
-            //System.out.print("(" + moveX[ii] + "," + moveY[ii] + ") ");
-          }
-	}
-//	else if (jj==2) { //180 degree, with origin at center: (x,y)==>(-x,-y)
-//	  for (int ii = 0; ii < moveRecord.length(); ii++) {
-//            moveX[ii] = -(moveX[ii]-2) + 2; //To get coordinate by center, need to "-2".  After rotate, shift back by "+2".
-//            moveY[ii] = -(moveY[ii]-2) + 2;
-//            System.out.print("(" + moveX[ii] + "," + moveY[ii] + ") ");
-//          }
-//	}
-//	else if (jj==3) { //270 degree, with origin at center: (x,y)==>(y,-x)
-//	  for (int ii = 0; ii < moveRecord.length(); ii++) {
-//	    tempNum = moveX[ii];
-//            moveX[ii] = (moveY[ii]-2) + 2; //To get coordinate by center, need to "-2".  After rotate, shift back by "+2".
-//            moveY[ii] = -(tempNum-2) + 2;
-//            System.out.print("(" + moveX[ii] + "," + moveY[ii] + ") ");
-//          }
-//	}
-	//System.out.print("\n");
-
-	//draw roated board
-	if (jj!=0) {
-	  updateMoveRecord(moveX, moveY, moveRecord.length());
-	  resetTicTacToeShape();
-	}
-	//showTheMove();
-        
-	saveLine = "";
-        for (int ii = 0; ii < moveRecord.length(); ii++) {
-  	  if (ii != 0) {
-	    saveLine += "-";
-	  }
-	  saveLine += "(" + moveX[ii] + "," + moveY[ii] + ")";
-        }
-	if (saveLineCombined.indexOf("**" + saveLine) >=0) {
-	  //do not save duplicate move due to symmetry result
-	  //System.out.println("Duplicate lose move, no save!");
-	}
-	else {
-	  saveLineCombined += ("**" + saveLine);
-	  bw.write(saveLine+"\n");
-	}
-      }
-      bw.close();
-    } catch (Exception e) {
+      LoseRecordCompactor.write(loseRecordsFileName, minimalRecords, LoseRecordFile.isBinary(loseRecordsFileName));
+      loseRecords = minimalRecords;
+      loseRecordCount = minimalRecords.length;
+      saveSnapshot();  //the snapshot of the old file is stale
+    } catch (IOException e) {
       e.printStackTrace();
     }
-    
   }
 
   /**
-   * Logic to play the computer move for the game.
+   * Save the lose record of the game, and learn its lose pattern right away.
    * <p>
-   * It uses a random number to decide the next move.  It skips a position already occupied by either
-   * computer of person, and it skips a position that will lead to the same lose record by comparing
-   * to the losePatterns[] from the historical loses.
+   * The record is saved in the canonical form of BoardSymmetry, so a game and all its rotations and
+   * reflections are saved as one record.  It is only queued to loseRecordLog, which writes it in the
+   * background, so the game does not wait for the disk.
    */
-  private void computerMove() {
-    int move = 0;
-    int tempMove = 0;
-    String loseHistoricalMoves = "";
-    
-    loseHistoricalMoves = getLoseHistoricalMoves(); //Get all the next moves leading to existing loses
+  private void saveLoseRecord() {
+    int moveCount = gameState.getMoveCount();
+    long canonicalHistory = BoardSymmetry.canonical(gameState.getHistory(), moveCount);
 
-    Random rand = new Random();
-    tempMove = rand.nextInt(MAX_MOVE_NUMBER - moveRecord.length() - loseHistoricalMoves.length()) + 1;
+    loseRecordLog.add(canonicalHistory);
+    metrics.loseRecordSaved();
 
-    move = 0;
-    for(int ii=0; ii<tempMove; ii++) {
-      move++;
-      while ( (moveRecord.indexOf(String.valueOf(move)) >= 0) ||  //skip existing moves
-	      (loseHistoricalMoves.indexOf(String.valueOf(move)) >= 0) ) {  //skip lose moves 
-        if (loseHistoricalMoves.indexOf(String.valueOf(move)) >= 0) { 
-	  System.out.println("Skip a historical lose move: " + move);
-	}
-	move++;
-      }
+    //learn the lose right away, the last person move is dropped to get the lose pattern
+    losePatterns.add(canonicalHistory, moveCount - 1);
+    if (replicator != null) {
+      replicator.publish(canonicalHistory);
     }
-
-    System.out.println("Computer move: " + String.valueOf((move - ((move - 1) % 3)) / 3 + 1) + "," +
-		       String.valueOf((move - 1) % 3 + 1));
-    moveRecord = moveRecord + String.valueOf(move); 
   }
 
-  private String getLoseHistoricalMoves() {
-    String histMoves = "";
-
-    for (int ii=1; ii < losePatterns.length; ii++) {
-      if (losePatterns[ii] == null) {
-        continue;
-      }
-
-      if ( (losePatterns[ii].length() == moveRecord.length()+1) &&
-           (losePatterns[ii].startsWith(moveRecord)) ) {
-	String loseMove = losePatterns[ii].substring(moveRecord.length(), moveRecord.length()+1);
-	if (moveRecord.indexOf(loseMove)>=0) {
-	  //the lose move is impossible to happen since the position is already occupied
-	  ;
-	}
-	else {
-	  histMoves += loseMove;
-	}
-      }
+  /**
+   * Share the loses with the games running side by side, see LoseRecordReplicator: listen to the
+   * peers on a port (if not 0), connect to the peers "host:port", and share a spool directory (if not
+   * null).  The records of the lose records file are sent to each peer, and the records received are
+   * saved and learned like the loses of the games.  It is called before the games start, the games
+   * created after it share the loses too.
+   */
+  public void startReplication(int port, List<String> peers, String spoolDirectory) throws IOException {
+    replicator = new LoseRecordReplicator(this::receiveLoseRecord);
+    if (new File(loseRecordsFileName).exists()) {
+      LoseRecordFile.stream(loseRecordsFileName, replicator::addSeen);
     }
-    
-    return histMoves;
-  }
-
-  private void updateTicTacToeShape() {
-    int[] moveX = new int[9];
-    int[] moveY = new int[9];
-
-    //Get move coordinates from moveRecord
-    System.out.print("Total Moves: ");
-    for (int ii = 0; ii < moveRecord.length(); ii++) {
-      int move = Integer.parseInt(moveRecord.substring(ii, ii+1));
-      moveX[ii] = (move - ((move - 1) % 3)) / 3 + 1;
-      moveY[ii] = (move - 1) % 3 + 1;
-      System.out.print("(" + moveX[ii] + "," + moveY[ii] + ") ");
+    if (port > 0) {
+      replicator.listen(port);
     }
-    System.out.print("\n");
-
-    resetTicTacToeShape();
-    String moveMark = "";
-    for (int ii = 0; ii < moveRecord.length(); ii++) {
-      if (ii % 2 == 0) { //computer move
-        moveMark = "X";
-      }
-      else { //person move
-	moveMark = "O";
-      }
-
-      int rowNumber = moveX[ii] * 2 - 1 - 1;
-
-      ticTacToeShape[rowNumber] = ticTacToeShape[rowNumber].substring(0, 2+(moveY[ii]-1)*4-1) + moveMark +
-		ticTacToeShape[rowNumber].substring(2+(moveY[ii]-1)*4);
+    for (String peer : peers) {
+      int colon = peer.lastIndexOf(':');
+      replicator.connect((colon > 0) ? peer.substring(0, colon) : "localhost", Integer.parseInt(peer.substring(colon + 1)));
     }
-  }
-
-  private void updateMoveRecord(int[] moveX, int[] moveY, int recordSize) {
-    //upddate moveRecord with moveX, moveY arrays
-    moveRecord = "";
-    for (int ii=0; ii<recordSize; ii++) {
-      moveRecord += String.valueOf((moveX[ii]-1)*3+moveY[ii]);
+    if (spoolDirectory != null) {
+      replicator.useSpool(spoolDirectory, loseRecordsFileName);
     }
   }
 
-  private String getInputMessage(String inputLine) {
-    String msg = "";
-    int moveX, moveY;
+  /**
+   * Save and learn a lose record received from another game, already in the canonical form.
+   */
+  private void receiveLoseRecord(long record) {
+    loseRecordLog.add(record);
+    losePatterns.add(record, LoseRecordFile.getMoveCount(record) - 1);
+  }
 
-    if (inputLine.matches("^\\s*\\d\\s*,\\s*\\d\\s*$")) {
-      moveX=Integer.parseInt(inputLine.substring(0, inputLine.indexOf(",")).trim());
-      moveY=Integer.parseInt(inputLine.substring(inputLine.indexOf(",") + 1).trim());
+  /**
+   * Logic to play the computer move for the game, with the computer strategy.
+   * <p>
+   * With the learning strategy, it uses a random number to decide the next move.  It skips a position
+   * already occupied by either computer of person, and it skips a position that will lead to the same
+   * lose record by comparing to the lose patterns from the historical loses.
+   */
+  private void computerMove() {
+    int move;
+    if (!batchMode || (++moveSample % MOVE_SAMPLE_RATE == 0)) {
+      long startTime = System.nanoTime();
+      move = computerStrategy.nextMove(gameState);
+      metrics.moveTime(System.nanoTime() - startTime);
+    }
+    else {
+      move = computerStrategy.nextMove(gameState);
+    }
+    gameState.play(move);
+    if (batchMode || renderer.isQuiet()) {
+      return;
+    }
 
-      if ( (moveX>=1) && (moveX<=3) && (moveY>=1) && (moveY<=3) ) {
-	if (moveRecord.indexOf(String.valueOf((moveX-1)*3+moveY))>=0) {
-          msg = "Move (" + moveX + "," + moveY + ") already used, please re-enter:";
-	}
-	else {
-          //msg = "Good Move: (" + moveX + "," + moveY + ")";
-	  msg = String.valueOf((moveX-1)*3+moveY);
-	}
-      }
-      else {
-        msg = "Move (" + moveX + "," + moveY + ") out of range, please re-enter:";
+    PrintStream output = renderer.getOutput();
+    if (computerStrategy instanceof LearningStrategy) {
+      //report the lose moves skipped before reaching the move picked
+      int skippedMoves = ((LearningStrategy) computerStrategy).getLastLoseMoves();
+      while (skippedMoves != 0) {
+        output.println("Skip a historical lose move: " + (Integer.numberOfTrailingZeros(skippedMoves) + 1));
+        skippedMoves &= skippedMoves - 1;
       }
     }
-    else {
-      msg = "Bad move format, please re-enter:";
+    else if (computerStrategy instanceof MonteCarloStrategy) {
+      MonteCarloStrategy mcts = (MonteCarloStrategy) computerStrategy;
+      output.println("Search: " + mcts.getLastRollouts() + " rollouts, " + mcts.getLastNodeCount() + " nodes, " +
+                         mcts.getLastRolloutsPerSecond() + " rollouts/s");
     }
 
-    return msg;
+    renderer.showMove(true, move);
   }
 
   private void personMove() {
-    int move = 0;
-    int tempMove = 0;
-    String inputLine = "";
-
-    String msg = "Please enter your move:";
-    try {
-      while(!msg.matches("^\\d$")) {
-        System.out.print(msg);
-        BufferedReader br = new BufferedReader(new InputStreamReader(System.in));
-        inputLine = br.readLine();
-	msg = getInputMessage(inputLine);
-      }
-    } catch (Exception e) {}
-    
-    moveRecord = moveRecord + String.valueOf(msg); 
-  }
-
-  private void personMoveSimulated() {
-    int move = 0;
-    int tempMove = 0;
-
-    Random rand = new Random();
-    tempMove = rand.nextInt(MAX_MOVE_NUMBER - moveRecord.length()) + 1;
-
-    move = 0;
-    for(int ii=0; ii<tempMove; ii++) {
-      move++;
-      while (moveRecord.indexOf(String.valueOf(move)) >= 0) { //skip existing moves
-	move++;
-      }
+    int move = personStrategy.nextMove(gameState);
+    gameState.play(move);
+    if (batchMode || (personStrategy instanceof HumanStrategy)) {
+      return;
     }
 
-    System.out.println("Person move simulated: " + String.valueOf((move - ((move - 1) % 3)) / 3 + 1) + "," +
-		       String.valueOf((move - 1) % 3 + 1));
-    moveRecord = moveRecord + String.valueOf(move); 
+    renderer.showMove(false, move);
   }
 
+  /**
+   * Draw the moves and the board after a move, in one write, see ConsoleRenderer.
+   */
   private void showTheMove() {
-    //System.out.println("The moves are: " + moveRecord);
-
-    updateTicTacToeShape();
-    for (int ii=0; ii<5; ii++) {
-      System.out.println(ticTacToeShape[ii]);
-    }
+    renderer.showBoard(gameState);
   }
 
   private void nextMove() {
-    if (moveRecord.length() % 2 == 0) {
+    if (gameState.getMoveCount() % 2 == 0) {
       computerMove();
     }
     else {
       personMove();
-      //personMoveSimulated();
     }
 
     showTheMove();
@@ -525,7 +1005,7 @@ public class TicTacToe {
   private boolean isPersonWin() {
     boolean personWin = false;
 
-    if (someoneWin && (moveRecord.length() % 2 == 0) ) {
+    if (someoneWin && (gameState.getMoveCount() % 2 == 0) ) {
       personWin = true;
     }
 
@@ -535,155 +1015,18 @@ public class TicTacToe {
   private boolean isComputerWin() {
     boolean computerWin = false;
 
-    if (someoneWin && (moveRecord.length() % 2 != 0) ) {
+    if (someoneWin && (gameState.getMoveCount() % 2 != 0) ) {
       computerWin = true;
     }
 
     return computerWin;
   }
 
-  private boolean hasSameX(int[] moveX, int[] moveY, int aValue) {
-    boolean hasSame = false;
-    int countSameValue = 0;
-
-    //check computer moves
-    countSameValue = 0;
-    for (int ii = 0; ii < moveRecord.length(); ii+=2) {
-      if (moveX[ii] == aValue) {
-	countSameValue++;
-      }
-    }
-
-    if (countSameValue==3) {
-      hasSame = true;
-    }
-
-    //check person moves
-    if (!hasSame) {
-      countSameValue = 0;
-      for (int ii = 1; ii < moveRecord.length(); ii+=2) {
-        if (moveX[ii] == aValue) {
-  	countSameValue++;
-        }
-      }
-  
-      if (countSameValue==3) {
-        hasSame = true;
-      }
-    }
-
-    return hasSame;
-  }
-
-  private boolean hasSameY(int[] moveX, int[] moveY, int aValue) {
-    boolean hasSame = false;
-    int countSameValue = 0;
-
-    //check computer moves
-    countSameValue = 0;
-    for (int ii = 0; ii < moveRecord.length(); ii+=2) {
-      if (moveY[ii] == aValue) {
-	countSameValue++;
-      }
-    }
-
-    if (countSameValue==3) {
-      hasSame = true;
-    }
-
-    //check person moves
-    if (!hasSame) {
-      countSameValue = 0;
-      for (int ii = 1; ii < moveRecord.length(); ii+=2) {
-        if (moveY[ii] == aValue) {
-  	countSameValue++;
-        }
-      }
-  
-      if (countSameValue==3) {
-        hasSame = true;
-      }
-    }
-
-    return hasSame;
-  }
-
-  private boolean hasDiagonal(int[] moveX, int[] moveY) {
-    boolean hasDiagonal = false;
-    boolean has11, has22, has33, has13, has31;
-    int computerOrPerson = 0; //computerOrPerson = 0 ==> computer, computerOrPerson = 1 ==> person
-    
-    hasDiagonal = false;
-    for (computerOrPerson = 0; (computerOrPerson <= 1) && (!hasDiagonal); computerOrPerson++) {
-    has11 = false;
-    has22 = false;
-    has33 = false;
-    has13 = false;
-    has31 = false;
-    for (int ii = computerOrPerson; ii < moveRecord.length(); ii+=2) {
-      if ( (moveX[ii] == 1) && (moveY[ii] == 1) ) {
-	has11 = true;
-      }
-      if ( (moveX[ii] == 2) && (moveY[ii] == 2) ) {
-	has22 = true;
-      }
-      if ( (moveX[ii] == 3) && (moveY[ii] == 3) ) {
-	has33 = true;
-      }
-    }
-
-    if (has11 && has22 && has33) {
-      hasDiagonal = true;
-    }
-    else {
-      for (int ii = computerOrPerson; ii < moveRecord.length(); ii+=2) {
-        if ( (moveX[ii] == 1) && (moveY[ii] == 3) ) {
-  	has13 = true;
-        }
-        if ( (moveX[ii] == 2) && (moveY[ii] == 2) ) {
-  	has22 = true;
-        }
-        if ( (moveX[ii] == 3) && (moveY[ii] == 1) ) {
-  	has31 = true;
-        }
-      }
-
-      if (has13 && has22 && has31) {
-        hasDiagonal = true;
-      }
-    }
-    }
-
-    return hasDiagonal;
-  }
-
+  /**
+   * Check if one side wins by matching its moves against the 8 lines of the board.
+   */
   private boolean isGameEnded() {
-    boolean gameEnded = false;
-
-    int[] moveX = new int[9];
-    int[] moveY = new int[9];
-
-    //Get move coordinates from moveRecord
-    //System.out.print("Moves: ");
-    for (int ii = 0; ii < moveRecord.length(); ii++) {
-      int move = Integer.parseInt(moveRecord.substring(ii, ii+1));
-      moveX[ii] = (move - ((move - 1) % 3)) / 3 + 1;
-      moveY[ii] = (move - 1) % 3 + 1;
-      //System.out.print("(" + moveX[ii] + "," + moveY[ii] + ") ");
-    }
-    //System.out.print("\n");
-
-    for (int ii = 1; ii <= 3; ii++) {
-      if (hasSameX(moveX, moveY, ii) ||  hasSameX(moveY, moveX, ii)) {
-	gameEnded = true;
-      }
-    }
-
-    if (!gameEnded) {
-      if(hasDiagonal(moveX, moveY)) {
-	gameEnded = true;
-      }
-    }
+    boolean gameEnded = gameState.hasWinner();
 
     if (gameEnded) {
       someoneWin = true;
@@ -0,0 +1,295 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Tournament - Play matchups of strategies from fixed seeds and write the learning curves as CSV.
+ * <p>
+ * A matchup is the computer strategy and the person strategy joined by "-", such as
+ * "learning-random", "learning-perfect", "learning-learning" or "learning-mcts", the names of
+ * TicTacToe except "human".  Each matchup is played by one run for each seed, from an empty store or from
+ * the lose records of a file, learning in memory only, so the file is never changed.
+ * <p>
+ * A run plays its games one after the other on one thread, with all its random# generators split
+ * from its seed, so the same seed plays the same games and gives the same numbers every time.  The
+ * runs are played in parallel.  An "mcts" strategy shares its search tree between tasks running at
+ * the same time, so it only plays the same games with "mcts:tasks=1".
+ * <p>
+ * At each checkpoint (10, 20, 50, 100, 200, 500, ... games) a run reports the games since the last
+ * checkpoint: the rates of computer wins, ties and loses, with the Wilson 95% confidence interval
+ * of the lose rate, and the lose records saved and the lose positions learned so far.  One line is
+ * written for each run, and one line "all" for each matchup with the games of all the seeds
+ * together and the mean records and positions.  So the lose rate can be plotted against the games
+ * played or against the lose records:<br>
+ * java Tournament --matchups learning-random,learning-perfect --games 1000000 --seeds 8 [--seed 1]
+ * [--threads 4] [--records loserecords.txt] [--csv curves.csv]
+ */
+public class Tournament {
+  public static final String CSV_HEADER = "matchup,seed,games,window_games,lose_records,lose_positions," +
+                                          "computer_win_rate,tie_rate,lose_rate,lose_ci_low,lose_ci_high";
+  private static final double Z_95 = 1.959964;
+
+  private static final int COMPUTER_WINS = 0;  //the counts of a checkpoint
+  private static final int PERSON_WINS = 1;
+  private static final int TIES = 2;
+  private static final int LOSE_RECORDS = 3;
+  private static final int LOSE_POSITIONS = 4;
+
+  private String[] matchups;
+  private long gameNumber;
+  private int seedNumber;
+  private long firstSeed;
+  private long[] initialRecords;
+  private long[] checkpoints;
+
+  public Tournament(String[] matchups, long gameNumber, int seedNumber, long firstSeed, long[] initialRecords) {
+    this.matchups = matchups;
+    this.gameNumber = gameNumber;
+    this.seedNumber = seedNumber;
+    this.firstSeed = firstSeed;
+    this.initialRecords = initialRecords;
+    checkpoints = getCheckpoints(gameNumber);
+    for (int ii = 0; ii < matchups.length; ii++) {
+      String[] names = splitMatchup(matchups[ii]);
+      createStrategy(names[0], new LosePositionStore(), new SplittableRandom(0));  //fail early on a bad name
+      createStrategy(names[1], new LosePositionStore(), new SplittableRandom(0));
+    }
+  }
+
+  public static void main(String[] args) {
+    String matchupList = "learning-random,learning-perfect,learning-learning";
+    long gameNumber = 100000;
+    int seedNumber = 4;
+    long firstSeed = 1;
+    int threadNumber = Runtime.getRuntime().availableProcessors();
+    String recordsFile = null;
+    String csvFile = null;
+    for (int ii = 0; ii < args.length; ii++) {
+      if (args[ii].equals("--matchups") && (ii + 1 < args.length)) {
+        matchupList = args[++ii];
+      }
+      else if (args[ii].equals("--games") && (ii + 1 < args.length)) {
+        gameNumber = Long.parseLong(args[++ii]);
+        if (gameNumber < 1) {
+          throw new IllegalArgumentException("--games must be at least 1: " + gameNumber);
+        }
+      }
+      else if (args[ii].equals("--seeds") && (ii + 1 < args.length)) {
+        seedNumber = Integer.parseInt(args[++ii]);
+        if (seedNumber < 1) {
+          throw new IllegalArgumentException("--seeds must be at least 1: " + seedNumber);
+        }
+      }
+      else if (args[ii].equals("--seed") && (ii + 1 < args.length)) {
+        firstSeed = Long.parseLong(args[++ii]);
+      }
+      else if (args[ii].equals("--threads") && (ii + 1 < args.length)) {
+        threadNumber = Integer.parseInt(args[++ii]);
+      }
+      else if (args[ii].equals("--records") && (ii + 1 < args.length)) {
+        recordsFile = args[++ii];
+      }
+      else if (args[ii].equals("--csv") && (ii + 1 < args.length)) {
+        csvFile = args[++ii];
+      }
+      else {
+        System.out.println("Usage: java Tournament [--matchups learning-random,...] [--games N] [--seeds S]" +
+                           " [--seed first] [--threads T] [--records file] [--csv file]");
+        return;
+      }
+    }
+
+    try {
+      long[] initialRecords = (recordsFile == null) ? new long[0] : LoseRecordFile.read(recordsFile);
+      Tournament tournament = new Tournament(matchupList.split(","), gameNumber, seedNumber, firstSeed, initialRecords);
+      long startTime = System.nanoTime();
+      PrintStream csv = (csvFile == null) ? System.out : new PrintStream(new BufferedOutputStream(new FileOutputStream(csvFile)));
+      try {
+        tournament.run(threadNumber, csv);
+      } finally {
+        csv.flush();
+        if (csv != System.out) {
+          csv.close();
+        }
+      }
+      System.err.println("Played " + (gameNumber * seedNumber * tournament.matchups.length) + " games in " +
+                         (System.nanoTime() - startTime) / 1000000 + " ms");
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Play all the runs on a pool of threads and write the CSV lines, in the order of the matchups and
+   * the seeds whatever order the runs end in.
+   */
+  public void run(int threadNumber, PrintStream csv) {
+    ExecutorService executor = Executors.newFixedThreadPool(threadNumber);
+    List<List<Future<long[][]>>> runs = new ArrayList<List<Future<long[][]>>>();
+    for (int ii = 0; ii < matchups.length; ii++) {
+      final String matchup = matchups[ii];
+      List<Future<long[][]>> matchupRuns = new ArrayList<Future<long[][]>>();
+      for (int jj = 0; jj < seedNumber; jj++) {
+        final long seed = firstSeed + jj;
+        matchupRuns.add(executor.submit(() -> play(matchup, seed)));
+      }
+      runs.add(matchupRuns);
+    }
+    executor.shutdown();
+
+    csv.println(CSV_HEADER);
+    try {
+      for (int ii = 0; ii < matchups.length; ii++) {
+        long[][][] results = new long[seedNumber][][];
+        for (int jj = 0; jj < seedNumber; jj++) {
+          results[jj] = runs.get(ii).get(jj).get();
+          for (int kk = 0; kk < checkpoints.length; kk++) {
+            long[] counts = results[jj][kk];
+            writeLine(csv, matchups[ii], String.valueOf(firstSeed + jj), kk, counts,
+                      String.valueOf(counts[LOSE_RECORDS]), String.valueOf(counts[LOSE_POSITIONS]));
+          }
+        }
+
+        //all the seeds together
+        for (int kk = 0; kk < checkpoints.length; kk++) {
+          long[] total = new long[5];
+          for (int jj = 0; jj < seedNumber; jj++) {
+            for (int ll = 0; ll < total.length; ll++) {
+              total[ll] += results[jj][kk][ll];
+            }
+          }
+          writeLine(csv, matchups[ii], "all", kk, total,
+                    String.format("%.1f", (double) total[LOSE_RECORDS] / seedNumber),
+                    String.format("%.1f", (double) total[LOSE_POSITIONS] / seedNumber));
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("A tournament run failed", e.getCause());
+    }
+  }
+
+  /**
+   * Play the games of one run.
+   *
+   * @return the counts at each checkpoint: the computer wins, person wins and ties since the last
+   *         checkpoint, and the lose records saved and the lose positions so far.
+   */
+  long[][] play(String matchup, long seed) {
+    SplittableRandom random = new SplittableRandom(seed);
+    LosePositionStore store = new LosePositionStore();
+    for (int ii = 0; ii < initialRecords.length; ii++) {
+      if (LoseRecordFile.isValidRecord(initialRecords[ii])) {
+        store.add(initialRecords[ii], LoseRecordFile.getMoveCount(initialRecords[ii]) - 1);
+      }
+    }
+    String[] names = splitMatchup(matchup);
+    MoveStrategy computer = createStrategy(names[0], store, random.split());
+    MoveStrategy person = createStrategy(names[1], store, random.split());
+
+    long[][] results = new long[checkpoints.length][5];
+    long[] window = new long[3];
+    long loseRecords = 0;
+    int checkpoint = 0;
+    GameState state = new GameState();
+    for (long game = 1; game <= gameNumber; game++) {
+      state.reset();
+      while (!state.hasWinner() && (state.getMoveCount() < TicTacToe.MAX_MOVE_NUMBER)) {
+        if (state.getMoveCount() % 2 == 0) {
+          state.play(computer.nextMove(state));
+        }
+        else {
+          state.play(person.nextMove(state));
+        }
+      }
+
+      //the same as TicTacToe.endGame(), in memory only
+      int result = TicTacToe.TIE;
+      if (state.hasWinner()) {
+        result = (state.getMoveCount() % 2 == 1) ? TicTacToe.COMPUTER_WIN : TicTacToe.PERSON_WIN;
+        MoveStrategy loser = (result == TicTacToe.COMPUTER_WIN) ? person : computer;
+        if (loser instanceof LearningStrategy) {
+          store.add(BoardSymmetry.canonical(state.getHistory(), state.getMoveCount()), state.getMoveCount() - 1);
+          loseRecords++;
+        }
+      }
+      computer.gameEnded(state, result);
+      person.gameEnded(state, result);
+      window[(result == TicTacToe.COMPUTER_WIN) ? COMPUTER_WINS : ((result == TicTacToe.PERSON_WIN) ? PERSON_WINS : TIES)]++;
+
+      if (game == checkpoints[checkpoint]) {
+        results[checkpoint][COMPUTER_WINS] = window[COMPUTER_WINS];
+        results[checkpoint][PERSON_WINS] = window[PERSON_WINS];
+        results[checkpoint][TIES] = window[TIES];
+        results[checkpoint][LOSE_RECORDS] = loseRecords;
+        results[checkpoint][LOSE_POSITIONS] = store.size();
+        Arrays.fill(window, 0);
+        checkpoint++;
+      }
+    }
+    return results;
+  }
+
+  private void writeLine(PrintStream csv, String matchup, String seed, int checkpoint, long[] counts,
+                         String loseRecords, String losePositions) {
+    long windowGames = counts[COMPUTER_WINS] + counts[PERSON_WINS] + counts[TIES];
+    double[] interval = getWilsonInterval(counts[PERSON_WINS], windowGames);
+    csv.println(matchup + "," + seed + "," + checkpoints[checkpoint] + "," + windowGames + "," +
+                loseRecords + "," + losePositions + "," +
+                String.format("%.6f,%.6f,%.6f,%.6f,%.6f", (double) counts[COMPUTER_WINS] / windowGames,
+                              (double) counts[TIES] / windowGames, (double) counts[PERSON_WINS] / windowGames,
+                              interval[0], interval[1]));
+  }
+
+  /**
+   * The Wilson score interval of a rate, at 95%, good also for the rates near 0 of a learner.
+   *
+   * @return the low and the high bounds.
+   */
+  static double[] getWilsonInterval(long successes, long trials) {
+    if (trials == 0) {
+      return new double[] {0.0, 1.0};
+    }
+    double p = (double) successes / trials;
+    double z2 = Z_95 * Z_95;
+    double denominator = 1 + z2 / trials;
+    double center = (p + z2 / (2 * trials)) / denominator;
+    double halfWidth = Z_95 * Math.sqrt(p * (1 - p) / trials + z2 / (4.0 * trials * trials)) / denominator;
+    return new double[] {Math.max(0.0, center - halfWidth), Math.min(1.0, center + halfWidth)};
+  }
+
+  /**
+   * The checkpoints 10, 20, 50, 100, ... up to the number of games, and the number of games.
+   */
+  static long[] getCheckpoints(long gameNumber) {
+    long[] checkpoints = new long[64];
+    int count = 0;
+    for (long decade = 10; decade < gameNumber; decade *= 10) {
+      for (int step : new int[] {1, 2, 5}) {
+        if (decade * step < gameNumber) {
+          checkpoints[count] = decade * step;
+          count++;
+        }
+      }
+    }
+    checkpoints[count] = gameNumber;
+    return Arrays.copyOf(checkpoints, count + 1);
+  }
+
+  private static String[] splitMatchup(String matchup) {
+    String[] names = matchup.trim().split("-", 2);
+    if (names.length != 2) {
+      throw new IllegalArgumentException("Bad matchup: " + matchup + ", expected <computer>-<person>");
+    }
+    return names;
+  }
+
+  /**
+   * Create a strategy of a run by its name, see TicTacToe.createStrategy(): "learning" on the store
+   * of the run, a statistics strategy on statistics of its own.
+   */
+  private static MoveStrategy createStrategy(String strategyName, LosePositionStore store, SplittableRandom random) {
+    return TicTacToe.createStrategy(strategyName, store, MoveStatistics::new, random, new EngineMetrics());
+  }
+}
@@ -0,0 +1,90 @@
+package tictactoe.bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.SplittableRandom;
+
+/**
+ * Game - Method handles to the game classes, for the benchmarks.
+ * <p>
+ * The game classes are in the default package, which JMH does not support and which can not be
+ * imported from a package, and the paths to measure are mostly private to TicTacToe.  So they are
+ * reached through method handles, looked up once.  The handles are static final and have the game
+ * types erased to Object, so they are called with invokeExact and inlined by the JIT like a direct
+ * call.
+ */
+final class Game {
+  static final MethodHandle NEW_TICTACTOE;       //(String loseRecordsFile) TicTacToe
+  static final MethodHandle NEW_BATCH_GAME;      //(TicTacToe shared, SplittableRandom) TicTacToe
+  static final MethodHandle SET_PERSON_STRATEGY;  //(TicTacToe, String) void
+  static final MethodHandle LOAD_LOSE_RECORDS;   //(TicTacToe) boolean
+  static final MethodHandle GET_LOSE_PATTERNS;   //(TicTacToe) void
+  static final MethodHandle LOAD_SNAPSHOT;       //(TicTacToe) boolean
+  static final MethodHandle IS_GAME_ENDED;       //(TicTacToe) boolean
+  static final MethodHandle PLAY_SIMULATED;      //(TicTacToe) int
+  static final MethodHandle SET_GAME_STATE;      //(TicTacToe, GameState) void
+  static final MethodHandle GET_LOSE_POSITION_STORE;  //(TicTacToe) LosePositionStore
+  static final MethodHandle CLOSE;               //(TicTacToe) void
+
+  static final MethodHandle NEW_GAME_STATE;      //() GameState
+  static final MethodHandle PLAY;                //(GameState, int) void
+  static final MethodHandle HAS_WINNER;          //(GameState) boolean
+  static final MethodHandle GET_FREE_MOVES;      //(GameState) int
+  static final MethodHandle GET_MOVE_COUNT;      //(GameState) int
+  static final MethodHandle GET_HISTORY;         //(GameState) long
+
+  static final MethodHandle NEW_LEARNING_STRATEGY;      //(LosePositionStore, SplittableRandom) LearningStrategy
+  static final MethodHandle GET_LOSE_HISTORICAL_MOVES;  //(LearningStrategy, GameState) int
+
+  static final MethodHandle WRITE_TEXT;          //(String fileName, long[] records) void
+
+  static {
+    try {
+      Class<?> ticTacToe = Class.forName("TicTacToe");
+      Class<?> gameState = Class.forName("GameState");
+      Class<?> store = Class.forName("LosePositionStore");
+      Class<?> learning = Class.forName("LearningStrategy");
+      Class<?> recordFile = Class.forName("LoseRecordFile");
+      MethodHandles.Lookup game = MethodHandles.privateLookupIn(ticTacToe, MethodHandles.lookup());
+
+      NEW_TICTACTOE = erase(game.findConstructor(ticTacToe, MethodType.methodType(void.class, String.class)));
+      NEW_BATCH_GAME = erase(game.findConstructor(ticTacToe,
+                                                  MethodType.methodType(void.class, ticTacToe, SplittableRandom.class)));
+      SET_PERSON_STRATEGY = erase(game.findVirtual(ticTacToe, "setPersonStrategy",
+                                                   MethodType.methodType(void.class, String.class)));
+      LOAD_LOSE_RECORDS = erase(game.findVirtual(ticTacToe, "loadLoseRecords", MethodType.methodType(boolean.class)));
+      GET_LOSE_PATTERNS = erase(game.findVirtual(ticTacToe, "getLosePatterns", MethodType.methodType(void.class)));
+      LOAD_SNAPSHOT = erase(game.findVirtual(ticTacToe, "loadSnapshot", MethodType.methodType(boolean.class)));
+      IS_GAME_ENDED = erase(game.findVirtual(ticTacToe, "isGameEnded", MethodType.methodType(boolean.class)));
+      PLAY_SIMULATED = erase(game.findVirtual(ticTacToe, "playSimulated", MethodType.methodType(int.class)));
+      SET_GAME_STATE = erase(game.findSetter(ticTacToe, "gameState", gameState));
+      GET_LOSE_POSITION_STORE = erase(game.findGetter(ticTacToe, "losePositionStore", store));
+      CLOSE = erase(game.findVirtual(ticTacToe, "close", MethodType.methodType(void.class)));
+
+      NEW_GAME_STATE = erase(game.findConstructor(gameState, MethodType.methodType(void.class)));
+      PLAY = erase(game.findVirtual(gameState, "play", MethodType.methodType(void.class, int.class)));
+      HAS_WINNER = erase(game.findVirtual(gameState, "hasWinner", MethodType.methodType(boolean.class)));
+      GET_FREE_MOVES = erase(game.findVirtual(gameState, "getFreeMoves", MethodType.methodType(int.class)));
+      GET_MOVE_COUNT = erase(game.findVirtual(gameState, "getMoveCount", MethodType.methodType(int.class)));
+      GET_HISTORY = erase(game.findVirtual(gameState, "getHistory", MethodType.methodType(long.class)));
+
+      NEW_LEARNING_STRATEGY = erase(game.findConstructor(learning,
+                                                         MethodType.methodType(void.class, store, SplittableRandom.class)));
+      GET_LOSE_HISTORICAL_MOVES = erase(game.findVirtual(learning, "getLoseHistoricalMoves",
+                                                         MethodType.methodType(int.class, gameState)));
+
+      WRITE_TEXT = erase(game.findStatic(recordFile, "writeText",
+                                         MethodType.methodType(void.class, String.class, long[].class)));
+    } catch (ReflectiveOperationException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  private Game() {
+  }
+
+  private static MethodHandle erase(MethodHandle handle) {
+    return handle.asType(handle.type().erase());
+  }
+}
@@ -0,0 +1,87 @@
+package tictactoe.bench;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * GameBenchmark - The paths run for every move and every game, with the lose patterns learned from
+ * the records of the LoseRecords state.
+ * <p>
+ * The positions are random positions of a game not ended yet with the computer to move, taken in
+ * turn so the branches do not settle on one position.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GameBenchmark {
+  private static final int POSITION_NUMBER = 1024;  //a power of 2
+
+  @State(Scope.Thread)
+  public static class Positions {
+    Object[] states;  //GameState
+    Object learningStrategy;
+    Object batchGame;  //TicTacToe in batch mode, learning computer and random person
+    int next;
+
+    @Setup(Level.Trial)
+    public void setUp(LoseRecords loseRecords) throws Throwable {
+      SplittableRandom random = new SplittableRandom(42);
+      states = new Object[POSITION_NUMBER];
+      for (int ii = 0; ii < POSITION_NUMBER; ii++) {
+        Object state;
+        do {
+          state = Game.NEW_GAME_STATE.invoke();
+          int moveCount = 2 * random.nextInt(4);  //0 to 6 moves
+          for (int jj = 0; jj < moveCount; jj++) {
+            int freeMoves = (int) Game.GET_FREE_MOVES.invoke(state);
+            Game.PLAY.invoke(state, LoseRecords.nthMove(freeMoves, random.nextInt(Integer.bitCount(freeMoves))));
+          }
+        } while ((boolean) Game.HAS_WINNER.invoke(state));
+        states[ii] = state;
+      }
+
+      Object store = Game.GET_LOSE_POSITION_STORE.invoke(loseRecords.game);
+      learningStrategy = Game.NEW_LEARNING_STRATEGY.invoke(store, random.split());
+      batchGame = Game.NEW_BATCH_GAME.invoke(loseRecords.game, random.split());
+    }
+
+    Object nextState() {
+      next = (next + 1) & (POSITION_NUMBER - 1);
+      return states[next];
+    }
+  }
+
+  @Benchmark
+  public int getLoseHistoricalMoves(Positions positions) throws Throwable {
+    return (int) Game.GET_LOSE_HISTORICAL_MOVES.invokeExact(positions.learningStrategy, positions.nextState());
+  }
+
+  @Benchmark
+  public boolean isGameEnded(Positions positions) throws Throwable {
+    Game.SET_GAME_STATE.invokeExact(positions.batchGame, positions.nextState());
+    return (boolean) Game.IS_GAME_ENDED.invokeExact(positions.batchGame);
+  }
+
+  /**
+   * A full game in batch mode: computerMove() with the learning strategy and personMove() with the
+   * random strategy until the game ends, and the lose record saved if the computer loses.
+   */
+  @Benchmark
+  public int simulatedGame(Positions positions) throws Throwable {
+    return (int) Game.PLAY_SIMULATED.invokeExact(positions.batchGame);
+  }
+}
@@ -0,0 +1,102 @@
+package tictactoe.bench;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.SplittableRandom;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * LoseRecords - The lose records file of a benchmark, and a game which has loaded it.
+ * <p>
+ * "shipped" is the loserecords.txt of the game, found at ../loserecords.txt or with the system
+ * property tictactoe.records.  A number is a synthetic file of that many records: random games won
+ * by the person, as the computer saves them, generated with a fixed seed and kept in the temporary
+ * directory for the next runs.
+ * <p>
+ * Each trial works on its own copy of the file, since the simulated games append their loses to it.
+ */
+@State(Scope.Benchmark)
+public class LoseRecords {
+  private static final long SEED = 20240101L;
+
+  @Param({"shipped", "100000", "1000000"})
+  public String records;
+
+  Path recordsFile;
+  Object game;  //TicTacToe, learning computer and random person
+
+  @Setup(Level.Trial)
+  public void setUp() throws Throwable {
+    Path source;
+    if (records.equals("shipped")) {
+      source = Paths.get(System.getProperty("tictactoe.records", "../loserecords.txt"));
+      if (!Files.exists(source)) {
+        throw new IllegalStateException("No lose records file " + source.toAbsolutePath() +
+                                        ", set it with -Dtictactoe.records=<file>");
+      }
+    }
+    else {
+      source = getSyntheticFile(Integer.parseInt(records));
+    }
+
+    recordsFile = Files.createTempFile("tictactoe-bench-", ".txt");
+    Files.copy(source, recordsFile, StandardCopyOption.REPLACE_EXISTING);
+    game = Game.NEW_TICTACTOE.invoke(recordsFile.toString());  //saves the snapshot of the copy
+    Game.LOAD_LOSE_RECORDS.invoke(game);  //the game may have started from the snapshot, without the records
+    Game.SET_PERSON_STRATEGY.invoke(game, "random");
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Throwable {
+    Game.CLOSE.invoke(game);
+    Files.deleteIfExists(recordsFile);
+    Files.deleteIfExists(Paths.get(recordsFile + ".wal"));
+    Files.deleteIfExists(Paths.get(recordsFile + ".snap"));
+  }
+
+  private static Path getSyntheticFile(int recordNumber) throws Throwable {
+    Path file = Paths.get(System.getProperty("java.io.tmpdir"), "tictactoe-synthetic-" + recordNumber + ".txt");
+    if (Files.exists(file)) {
+      return file;
+    }
+
+    SplittableRandom random = new SplittableRandom(SEED);
+    long[] loseRecords = new long[recordNumber];
+    int count = 0;
+    while (count < recordNumber) {
+      Object state = Game.NEW_GAME_STATE.invoke();
+      while (!(boolean) Game.HAS_WINNER.invoke(state) && ((int) Game.GET_MOVE_COUNT.invoke(state) < 9)) {
+        int freeMoves = (int) Game.GET_FREE_MOVES.invoke(state);
+        Game.PLAY.invoke(state, nthMove(freeMoves, random.nextInt(Integer.bitCount(freeMoves))));
+      }
+      int moveCount = (int) Game.GET_MOVE_COUNT.invoke(state);
+      if ((boolean) Game.HAS_WINNER.invoke(state) && (moveCount % 2 == 0)) {  //the person moved last
+        loseRecords[count] = (long) Game.GET_HISTORY.invoke(state);
+        count++;
+      }
+    }
+
+    Path tempFile = Files.createTempFile(file.getParent(), "tictactoe-synthetic-", ".tmp");
+    Game.WRITE_TEXT.invoke(tempFile.toString(), loseRecords);
+    Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    return file;
+  }
+
+  /**
+   * The n-th (from 0) move of a move mask, bit (move-1) for a move.
+   */
+  static int nthMove(int moves, int n) {
+    for (int ii = 0; ii < n; ii++) {
+      moves &= moves - 1;
+    }
+    return Integer.numberOfTrailingZeros(moves) + 1;
+  }
+}
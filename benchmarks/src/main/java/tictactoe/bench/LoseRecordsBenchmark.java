@@ -0,0 +1,43 @@
+package tictactoe.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * LoseRecordsBenchmark - Loading the lose records and learning the lose patterns from them, the work
+ * done once when the game starts.
+ * <p>
+ * Both run on the game of the LoseRecords state, so they read the same file and learn from the same
+ * records each time.  getLosePatterns() builds a new LosePositionStore from the records loaded.
+ * loadSnapshot() is the start from the snapshot saved when the game was created, which replaces both
+ * while the file has not changed.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoseRecordsBenchmark {
+
+  @Benchmark
+  public boolean loadLoseRecords(LoseRecords loseRecords) throws Throwable {
+    return (boolean) Game.LOAD_LOSE_RECORDS.invokeExact(loseRecords.game);
+  }
+
+  @Benchmark
+  public void getLosePatterns(LoseRecords loseRecords) throws Throwable {
+    Game.GET_LOSE_PATTERNS.invokeExact(loseRecords.game);
+  }
+
+  @Benchmark
+  public boolean loadSnapshot(LoseRecords loseRecords) throws Throwable {
+    return (boolean) Game.LOAD_SNAPSHOT.invokeExact(loseRecords.game);
+  }
+}